@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the PhotoIdTable to the array with double-checked locking it replaced, with eight threads looking up
+ * random ids while new ids keep being handed out. Run with "gradle jmh".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PhotoIdTableBenchmark {
+
+	/**
+	 * One in how many operations hands out a new id
+	 */
+	@Param({"0", "64"})
+	public int growthRatio;
+
+	/**
+	 *
+	 */
+	@Param({"100000"})
+	public int noPreloadedIds;
+
+	/**
+	 *
+	 */
+	protected LockingIdArray lockingIds;
+	protected PhotoIdTable idTable;
+	protected volatile int tableCurrentId;
+
+	/**
+	 *
+	 */
+	@Setup(Level.Iteration)
+	public void setUp() {
+		lockingIds = new LockingIdArray();
+		idTable = new PhotoIdTable();
+		for (int id = 1; id <= noPreloadedIds; id++) {
+			lockingIds.raiseCurrentId(id);
+			lockingIds.getIdFromInt(id);
+			idTable.getOrCreate(id);
+		}
+		tableCurrentId = noPreloadedIds;
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public PhotoId lockingArray() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (growthRatio > 0 && random.nextInt(growthRatio) == 0) {
+			return lockingIds.getIdFromInt(lockingIds.nextId());
+		}
+		return lockingIds.getIdFromInt(1 + random.nextInt(lockingIds.currentId));
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public PhotoId lockFreeTable() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (growthRatio > 0 && random.nextInt(growthRatio) == 0) {
+			return idTable.getOrCreate(nextTableId());
+		}
+		return idTable.getOrCreate(1 + random.nextInt(tableCurrentId));
+	}
+
+	/**
+	 *
+	 */
+	protected synchronized int nextTableId() {
+		return ++tableCurrentId;
+	}
+
+	/**
+	 * The interning scheme PhotoId used before, kept here as baseline.
+	 */
+	protected static class LockingIdArray {
+
+		protected volatile int currentId = 0;
+		protected PhotoId[] ids = new PhotoId[64];
+
+		protected synchronized int nextId() {
+			raiseCurrentId(currentId + 1);
+			return currentId;
+		}
+
+		protected synchronized void raiseCurrentId(int id) {
+			if (id > currentId) {
+				if (id >= ids.length) {
+					PhotoId[] nids = new PhotoId[id + 64];
+					System.arraycopy(ids, 0, nids, 0, ids.length);
+					ids = nids;
+				}
+				currentId = id;
+			}
+		}
+
+		protected PhotoId getIdFromInt(int id) {
+			PhotoId[] array = ids;
+			PhotoId result = array[id];
+			if (result == null) {
+				synchronized (array) {
+					result = array[id];
+					if (result == null) {
+						result = new PhotoId(id);
+						array[id] = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wahlzeit.model.Tags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Masks typical photo captions and tag lists, comparing the StringBuffer escaping HtmlUtil used before to masking
+ * into a string, a Writer and a UTF-8 byte sink. Run with "gradle jmh -Pbenchmarks=HtmlEscapeBenchmark".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HtmlEscapeBenchmark {
+
+	/**
+	 * Captions and tags as users enter them; most contain nothing to mask
+	 */
+	protected static final String[] INPUTS = {
+			"Sunset over the lake",
+			"beach, sunset, holiday2015, family",
+			"Tom & Jerry at the \"Oktoberfest\"",
+			"Blick vom Gipfel auf den Königssee",
+			"flowers",
+			"<3 my cat",
+			"nightsky, stars, milkyway, longexposure, bavaria, mountains",
+			"Café in Zürich, 08:15"
+	};
+
+	/**
+	 *
+	 */
+	@Param({"captions", "tags"})
+	public String input;
+
+	/**
+	 *
+	 */
+	protected String[] values;
+	protected StringWriter writer;
+	protected ByteArrayOutputStream out;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() {
+		values = new String[INPUTS.length];
+		for (int i = 0; i < INPUTS.length; i++) {
+			values[i] = input.equals("tags") ? new Tags(INPUTS[i]).asString() : INPUTS[i];
+		}
+		writer = new StringWriter(4096);
+		out = new ByteArrayOutputStream(4096);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void stringBufferMask(Blackhole blackhole) {
+		for (String value : values) {
+			blackhole.consume(maskWithStringBuffer(value));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void maskForWeb(Blackhole blackhole) {
+		for (String value : values) {
+			blackhole.consume(HtmlUtil.maskForWeb(value));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void stringBufferMaskToBytes() throws IOException {
+		out.reset();
+		for (String value : values) {
+			out.write(maskWithStringBuffer(value).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void maskOnWriter() throws IOException {
+		writer.getBuffer().setLength(0);
+		for (String value : values) {
+			HtmlUtil.maskForWeb(value, writer);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void maskOnStream() throws IOException {
+		out.reset();
+		for (String value : values) {
+			HtmlUtil.maskForWeb(value, out);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public void asTag(Blackhole blackhole) {
+		for (String value : values) {
+			blackhole.consume(Tags.asTag(value));
+		}
+	}
+
+	/**
+	 * The masking HtmlUtil used before, kept here as baseline.
+	 */
+	protected static String maskWithStringBuffer(String s) {
+		StringBuffer result = new StringBuffer(s.length() + 16);
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '&') {
+				result.append("&amp;");
+			} else if (c == '"') {
+				result.append("&quot;");
+			} else if (c == '<') {
+				result.append("&lt;");
+			} else if (c == '>') {
+				result.append("&gt;");
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+}
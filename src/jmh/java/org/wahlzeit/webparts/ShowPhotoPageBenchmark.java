@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the English show-photo page, with its sidebar, caption and forms, once through the Writer path and once
+ * through the pre-encoded OutputStream path. Run with "gradle jmh" from the project directory, so the templates in
+ * src/main/webapp are found.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShowPhotoPageBenchmark {
+
+	/**
+	 *
+	 */
+	protected static final String TEMPLATES_DIR = "src/main/webapp/config/templates/default/en/";
+
+	/**
+	 *
+	 */
+	protected WebPart page;
+	protected ByteArrayOutputStream out;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		page = createWebPart("pages/ShowPhotoPage");
+		page.addString("title", "Wahlzeit - Photo Rating");
+		page.addString("heading", "<h1>Wahlzeit</h1>");
+		page.addString("mission", "Rate and share beer photos &mdash; one glass at a time.");
+		page.addString("menu", "<a href=\"/index.html\">Photos</a> | <a href=\"/upload.html\">Upload</a>");
+		page.addString("footer", "&copy; 2006-2019 Wahlzeit");
+		page.addString("mainWidth", "600");
+		page.addString("processingTime", "0.012");
+		page.addString("image", "<img src=\"/photos/?type=image&photoId=x1ac0&size=3\" alt=\"\">");
+		page.addString("description", "A photo of a Weißbier in Erlangen");
+		page.addString("keywords", "beer,weissbier,erlangen,franconia");
+		page.addString("id", "x1ac0");
+
+		WritableList sidebar = new WritableList();
+		sidebar.append(createWebPart("infos/BlurpInfo"));
+		WebPart filterPhotos = createWebPart("forms/FilterPhotosForm");
+		filterPhotos.addString("userName", "alice");
+		filterPhotos.addString("tags", "beer");
+		sidebar.append(filterPhotos);
+		sidebar.append(createWebPart("infos/LinksInfo"));
+		page.addWritable("sidebar", sidebar);
+
+		WebPart caption = createWebPart("infos/CaptionInfo");
+		caption.addString("caption", "Photo by <a href=\"/filter.html?userName=alice\">alice</a>");
+		page.addWritable("caption", caption);
+
+		WebPart engageGuest = createWebPart("forms/EngageGuestForm");
+		engageGuest.addString("link", "<a href=\"/x1ac0.html\">/x1ac0.html</a>");
+		engageGuest.addString("id", "x1ac0");
+		page.addWritable("engageGuest", engageGuest);
+
+		WebPart praisePhoto = createWebPart("forms/PraisePhotoForm");
+		praisePhoto.addString("id", "x1ac0");
+		page.addWritable("praisePhoto", praisePhoto);
+
+		out = new ByteArrayOutputStream(64 * 1024);
+	}
+
+	/**
+	 *
+	 */
+	protected static WebPart createWebPart(String name) throws IOException {
+		byte[] source = Files.readAllBytes(Paths.get(TEMPLATES_DIR + name + ".html"));
+		WebPartTemplate template = new WebPartTemplate(name);
+		template.initialize(new String(source, StandardCharsets.UTF_8));
+		return new WebPart(template);
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public int writer() throws IOException {
+		out.reset();
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		page.writeOn(writer);
+		writer.flush();
+		return out.size();
+	}
+
+	/**
+	 *
+	 */
+	@Benchmark
+	public int compiled() throws IOException {
+		out.reset();
+		page.writeOn(out);
+		return out.size();
+	}
+
+}
@@ -24,6 +24,7 @@ import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -75,15 +76,15 @@ public abstract class Agent {
 	public void run() {
 		synchronized (Agent.class) {
 			String agentName = "agent" + id++;
-			log.config(LogBuilder.createSystemMessage().addAction("started new agent").addParameter("name", agentName)
-					.addParameter("ID", id).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("started new agent")
+					.addParameter("name", agentName).addParameter("ID", id).publish();
 		}
 
 		try {
 			doRun();
 		} catch (Exception e) {
-			log.config(LogBuilder.createSystemMessage().addParameter("agent name", name).addException(
-					"Problem when executing task", e).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("agent name", name).addException(
+					"Problem when executing task", e).publish();
 		}
 	}
 
@@ -26,6 +26,7 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -97,7 +98,8 @@ public class AgentManager {
 			name = agent.getName();
 			agents.put(name, agent);
 		}
-		log.config(LogBuilder.createSystemMessage().addMessage("agent added").addParameter("name", name).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("agent added").addParameter("name", name).publish();
 	}
 
 	/**
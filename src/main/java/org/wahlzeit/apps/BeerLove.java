@@ -8,6 +8,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import java.io.File;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -27,19 +28,19 @@ public class BeerLove implements ServletContextListener {
             // configures logging
             String contextPath = sc.getContextPath();
             System.setProperty("contextPath", contextPath);
-            log.config(LogBuilder.createSystemMessage().
-                    addParameter("System property context path", contextPath).toString());
+            LogBuilder.createSystemMessage(log, Level.CONFIG).
+                    addParameter("System property context path", contextPath).publish();
 
             // determines file system root path to resources
             File dummyFile = new File(sc.getRealPath("dummy.txt"));
             String rootDir = dummyFile.getParent();
-            log.config(LogBuilder.createSystemMessage().
-                    addParameter("Root directory", rootDir).toString());
+            LogBuilder.createSystemMessage(log, Level.CONFIG).
+                    addParameter("Root directory", rootDir).publish();
 
             BeerMain.getInstance().startUp(true, rootDir);
         } catch (Exception ex) {
-            log.warning(LogBuilder.createSystemMessage().
-                    addException("Initializing context failed", ex).toString());
+            LogBuilder.createSystemMessage(log, Level.WARNING).
+                    addException("Initializing context failed", ex).publish();
             throw new RuntimeException("End of story!", ex);
         }
     }
@@ -51,8 +52,8 @@ public class BeerLove implements ServletContextListener {
         try {
             BeerMain.getInstance().shutDown();
         } catch (Exception ex) {
-            log.warning(LogBuilder.createSystemMessage().
-                    addException("Shutting instance down failed", ex).toString());
+            LogBuilder.createSystemMessage(log, Level.WARNING).
+                    addException("Shutting instance down failed", ex).publish();
         }
     }
 
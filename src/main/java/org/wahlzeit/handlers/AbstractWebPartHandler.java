@@ -27,18 +27,23 @@ import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.User;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.FragmentCache;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -80,6 +85,49 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 		return new WebPart(tmpl);
 	}
 
+	/**
+	 * Returns the rendered part of a template without values, which is the same for all users of a language.
+	 *
+	 * @methodtype factory
+	 */
+	protected final Writable createStaticWebPart(final UserSession us, final String name) {
+		String language = us.getClient().getLanguageConfiguration().getLanguageCode();
+		return FragmentCache.getInstance().getFragment(language, name, FragmentCache.NO_PHOTO_ID, 0,
+				new Supplier<Writable>() {
+					@Override
+					public Writable get() {
+						return createWebPart(us, name);
+					}
+				});
+	}
+
+	/**
+	 * Returns the rendered part showing the photo; maker is only asked for the part if the photo or its owner have
+	 * changed since it was last rendered in the user's language.
+	 *
+	 * @methodtype factory
+	 */
+	protected final Writable createPhotoWebPart(UserSession us, String name, Photo photo,
+												Supplier<? extends Writable> maker) {
+		String language = us.getClient().getLanguageConfiguration().getLanguageCode();
+		return FragmentCache.getInstance().getFragment(language, name, photo.getId().asInt(), getVersion(photo), maker);
+	}
+
+	/**
+	 * Photo parts show the owner's name, so they also depend on the owner. Versions of all data objects are drawn
+	 * from one increasing sequence, so the newer of the two identifies their combined state.
+	 *
+	 * @methodtype get
+	 */
+	protected long getVersion(Photo photo) {
+		long result = photo.getVersion();
+		User owner = UserManager.getInstance().getUserById(photo.getOwnerId());
+		if (owner != null) {
+			result = Math.max(result, owner.getVersion());
+		}
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -161,14 +209,14 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	public final String handleGet(UserSession us, String link, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for GET").publish();
 			return getIllegalAccessErrorPage(us);
 		}
 
 		if (!isWellFormedGet(us, link, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("received ill-formed GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("received ill-formed GET").publish();
 			return getIllegalArgumentErrorPage(us);
 		}
 
@@ -176,7 +224,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 			// may throw Exception
 			return doHandleGet(us, link, args);
 		} catch (Throwable t) {
-			log.warning(LogBuilder.createSystemMessage().addException("Handle get failed", t).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Handle get failed", t).publish();
 			return getInternalProcessingErrorPage(us);
 		}
 	}
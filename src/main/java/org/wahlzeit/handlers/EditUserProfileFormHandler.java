@@ -33,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -96,15 +97,15 @@ public class EditUserProfileFormHandler extends AbstractWebFormHandler {
 
 		if (!StringUtil.isNullOrEmptyString(gender)) {
 			user.setGender(Gender.getFromString(gender));
-			log.info(LogBuilder.createUserMessage().
-					addParameter("Gender", gender).toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addParameter("Gender", gender).publish();
 		}
 
 		if (!StringUtil.isNullOrEmptyString(language)) {
 			Language langValue = Language.getFromString(language);
 			user.setLanguage(langValue);
-			log.info(LogBuilder.createUserMessage().
-					addParameter("Language", langValue.asString()).toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addParameter("Language", langValue.asString()).publish();
 		}
 
 		ModelConfig config = us.getClient().getLanguageConfiguration();
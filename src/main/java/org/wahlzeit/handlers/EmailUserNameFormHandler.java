@@ -33,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -86,9 +87,9 @@ public class EmailUserNameFormHandler extends AbstractWebFormHandler {
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), config.getSendUserNameEmailSubject(),
 				user.getId());
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Username send per E-Mail").
-				addParameter("Target address", to.asString()).toString());
+				addParameter("Target address", to.asString()).publish();
 
 		us.setTwoLineMessage(config.getUserNameWasEmailed(), config.getContinueWithShowPhoto());
 
@@ -29,6 +29,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -72,9 +73,9 @@ public class FilterPhotosFormHandler extends AbstractWebFormHandler {
 			filter.setTags(new Tags(tags));
 		}
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Filter Photos").
-				addParameter("Tags", filter.getTags().asString()).toString());
+				addParameter("Tags", filter.getTags().asString()).publish();
 
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
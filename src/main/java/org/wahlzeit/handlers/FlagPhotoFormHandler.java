@@ -37,6 +37,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -120,9 +121,9 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
 
-		log.info(LogBuilder.createUserMessage()
+		LogBuilder.createUserMessage(log, Level.INFO)
 				.addAction("Flag Photo")
-				.addParameter("Photo", photo.getId().asString()).toString());
+				.addParameter("Photo", photo.getId().asString()).publish();
 
 		us.setTwoLineMessage(config.getModeratorWasInformed(), config.getContinueWithShowPhoto());
 
@@ -31,6 +31,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -83,12 +84,13 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
 				client.addPraisedPhotoId(photo.getId());
+				us.addPraisedPhoto(photo);
 				us.addProcessedPhoto(photo);
 				wasPraised = true;
 			}
 		}
 
-		log.info(LogBuilder.createUserMessage().addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addAction(wasPraised ? "PraisePhoto" : "SkipPhoto").publish();
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
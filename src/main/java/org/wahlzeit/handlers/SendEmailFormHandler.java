@@ -33,6 +33,7 @@ import org.wahlzeit.services.mailing.EmailServiceManager;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -130,9 +131,9 @@ public class SendEmailFormHandler extends AbstractWebFormHandler {
 		emailService.sendEmailIgnoreException(toUser.getEmailAddress(), config.getAuditEmailAddress(), emailSubject,
 				emailBody);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Send E-Mail").
-				addParameter("Recipient", toUser.getNickName()).toString());
+				addParameter("Recipient", toUser.getNickName()).publish();
 
 		us.setMessage(config.getEmailWasSent() + toUser.getNickName() + "!");
 
@@ -33,6 +33,7 @@ import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -106,8 +107,8 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 */
 	public String handlePost(UserSession us, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for POST").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for POST").publish();
 			return getIllegalAccessErrorPage(us);
 		}
 
@@ -158,12 +159,12 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performSaveAllRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("save all objects").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("save all objects").publish();
 
 		try {
 			ServiceMain.getInstance().saveAll();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("saving all objects failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("saving all objects failed", ex).publish();
 		}
 
 		us.setMessage("Saved objects...");
@@ -174,11 +175,11 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performShutdownRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("shutting system down").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("shutting system down").publish();
 		try {
 			ServiceMain.getInstance().requestStop();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("requesting stop failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("requesting stop failed", ex).publish();
 		}
 
 		us.setMessage("Shutting down...");
@@ -35,6 +35,7 @@ import org.wahlzeit.webparts.Writable;
 import org.wahlzeit.webparts.WritableList;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * A handler class for a specific web page.
@@ -128,14 +129,14 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		if (lastPraisedPhoto != null) {
 			parts.append(makePriorPhotoInfo(us, lastPraisedPhoto));
 		} else {
-			parts.append(createWebPart(us, PartUtil.BLURP_INFO_FILE));
+			parts.append(createStaticWebPart(us, PartUtil.BLURP_INFO_FILE));
 		}
 
 		WebFormHandler handler = getFormHandler(PartUtil.FILTER_PHOTOS_FORM_NAME);
 		Writable filterPhotos = handler.makeWebPart(us);
 		parts.append(filterPhotos);
 
-		parts.append(createWebPart(us, PartUtil.LINKS_INFO_FILE));
+		parts.append(createStaticWebPart(us, PartUtil.LINKS_INFO_FILE));
 
 		page.addWritable("sidebar", parts);
 	}
@@ -173,13 +174,19 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	/**
 	 *
 	 */
-	protected void makePhotoCaption(UserSession us, WebPart page) {
+	protected void makePhotoCaption(final UserSession us, WebPart page) {
 		PhotoId photoId = us.getPhotoId();
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-
-		WebPart caption = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
-		caption.addString(Photo.CAPTION, getPhotoCaption(us, photo));
-		page.addWritable(Photo.CAPTION, caption);
+		final Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+
+		page.addWritable(Photo.CAPTION, createPhotoWebPart(us, PartUtil.CAPTION_INFO_FILE, photo,
+				new Supplier<Writable>() {
+					@Override
+					public Writable get() {
+						WebPart caption = createWebPart(us, PartUtil.CAPTION_INFO_FILE);
+						caption.addString(Photo.CAPTION, getPhotoCaption(us, photo));
+						return caption;
+					}
+				}));
 	}
 
 	/**
@@ -215,14 +222,20 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 	/**
 	 *
 	 */
-	protected WebPart makePriorPhotoInfo(UserSession us, Photo lastPraisedPhoto) {
-		WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
-
-		result.addString(Photo.PRAISE, lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
-		result.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
-		result.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
-
-		return result;
+	protected Writable makePriorPhotoInfo(final UserSession us, final Photo lastPraisedPhoto) {
+		return createPhotoWebPart(us, PartUtil.PHOTO_INFO_FILE, lastPraisedPhoto, new Supplier<Writable>() {
+			@Override
+			public Writable get() {
+				WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
+
+				result.addString(Photo.PRAISE,
+						lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
+				result.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
+				result.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
+
+				return result;
+			}
+		});
 	}
 
 	/**
@@ -34,6 +34,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -105,9 +106,9 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 			user.setUserPhoto(photo);
 			us.setClient(user);
 			userManager.saveClient(user);
-			log.info(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.INFO).
 					addAction("Select user photo").
-					addParameter("Photo", id).toString());
+					addParameter("Photo", id).publish();
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
 			PhotoManager.getInstance().savePhoto(photo);
@@ -115,8 +116,8 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 				user.setUserPhoto(null);
 				userManager.saveClient(user);
 			}
-			log.info(LogBuilder.createUserMessage().
-					addAction("Deselect user photo").toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addAction("Deselect user photo").publish();
 		}
 
 		return result;
@@ -34,6 +34,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -83,19 +84,19 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 
 			photo.setTags(new Tags(tags));
 
-			log.config(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.CONFIG).
 					addAction("Upload Photo").
 					addParameter("Photo", photo.getId().asString()).
-					addParameter("tags", photo.getTags().asString()).toString());
+					addParameter("tags", photo.getTags().asString()).publish();
 
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addAction("Calling async task to save Photo").
-					addParameter("ID", photo.getId().asString()).toString());
+					addParameter("ID", photo.getId().asString()).publish();
 
 			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("uploading photo failed", ex).publish();
 			us.setMessage(config.getPhotoUploadFailed());
 		}
 
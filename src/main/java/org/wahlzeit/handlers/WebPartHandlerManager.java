@@ -24,6 +24,7 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -106,10 +107,10 @@ public class WebPartHandlerManager {
 	 */
 	public WebPartHandler addWebPartHandler(String name, WebPartHandler myHandler) {
 		handler.put(name, myHandler);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("add WebPartHandler").
 				addParameter("name", name).
-				addParameter("handler", myHandler).toString());
+				addParameter("handler", myHandler).publish();
 		return myHandler;
 	}
 
@@ -22,6 +22,7 @@ package org.wahlzeit.main;
 
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -82,21 +83,21 @@ public class BeerMain extends ServiceMain {
     public void startUp(boolean inProduction, String rootDir) throws Exception {
         isInProduction = inProduction;
 
-        log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").publish();
         super.startUp(rootDir);
 
-        log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").publish();
         configureWebPartTemplateService();
 
-        log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").publish();
         configureWebPartHandlers();
 
-        log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").publish();
         configureLanguageModels();
 
-        log.config(LogBuilder.createSystemMessage().addAction("Add default user with pictures").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Add default user with pictures").publish();
         addDefaultUserWithPictures();
 
-        log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+        LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").publish();
     }
 }
@@ -20,18 +20,33 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.utils.SystemProperty;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemImageStorage;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -41,30 +56,205 @@ public abstract class ModelMain extends AbstractMain {
 
 	private static final Logger log = Logger.getLogger(ModelMain.class.getName());
 
+	/**
+	 * System property that selects the image storage; the Datastore is used unless it is set to "filesystem"
+	 */
+	public static final String IMAGE_STORAGE_PROPERTY = "org.wahlzeit.imageStorage";
+	public static final String FILE_SYSTEM_IMAGE_STORAGE = "filesystem";
+
+	/**
+	 * System property with the path of the model snapshot file; no snapshots are taken unless it is set
+	 */
+	public static final String SNAPSHOT_FILE_PROPERTY = "org.wahlzeit.snapshotFile";
+
+	/**
+	 * Interval of taking model snapshots while running; on App Engine, snapshots are only taken when shutting down
+	 */
+	public static final long SNAPSHOT_INTERVAL_MINUTES = 10;
+
 	/**
 	 *
 	 */
+	protected ModelSnapshot modelSnapshot = null;
+	protected ScheduledExecutorService snapshotExecutor = null;
+	protected boolean isRestoredFromSnapshot = false;
+
+	/**
+	 * Duration of each start up phase in milliseconds, in order of completion
+	 */
+	protected final Map<String, Long> startUpMillis = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	/**
+	 * Users and photos do not depend on each other, so they are loaded concurrently.
+	 */
 	protected void startUp(String rootDir) throws Exception {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
 
-		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		runStartUpPhase("load image storage", new Runnable() {
+			@Override
+			public void run() {
+				ImageStorage.setInstance(createImageStorage());
+			}
+		});
+		runStartUpPhase("load globals", new Runnable() {
+			@Override
+			public void run() {
+				GlobalsManager.getInstance().loadGlobals();
+			}
+		});
+		runStartUpPhase("init PhotoFactory", new Runnable() {
+			@Override
+			public void run() {
+				PhotoFactory.initialize();
+			}
+		});
+
+		modelSnapshot = createModelSnapshot();
+		if (modelSnapshot != null) {
+			runStartUpPhase("restore model snapshot", new Runnable() {
+				@Override
+				public void run() {
+					isRestoredFromSnapshot = restoreModelSnapshot();
+				}
+			});
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
-		GlobalsManager.getInstance().loadGlobals();
+		if (!isRestoredFromSnapshot) {
+			ExecutorService executor = Executors.newSingleThreadExecutor(getStartUpThreadFactory());
+			try {
+				Future<?> userLoad = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						runStartUpPhase("load user", new Runnable() {
+							@Override
+							public void run() {
+								UserManager.getInstance().init();
+							}
+						});
+					}
+				});
+				runStartUpPhase("load Photos", new Runnable() {
+					@Override
+					public void run() {
+						PhotoManager.getInstance().init();
+					}
+				});
+				userLoad.get();
+			} finally {
+				executor.shutdown();
+			}
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
-		UserManager.getInstance().init();
+		if (modelSnapshot != null && SystemProperty.environment.value() == null) {
+			snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread result = new Thread(runnable, "model-snapshot");
+					result.setDaemon(true);
+					return result;
+				}
+			});
+			snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					saveModelSnapshot();
+				}
+			}, SNAPSHOT_INTERVAL_MINUTES, SNAPSHOT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("init PhotoFactory").toString());
-		PhotoFactory.initialize();
+		LogBuilder startUpReport = LogBuilder.createSystemMessage(log, Level.INFO).addMessage("start up times in ms");
+		synchronized (startUpMillis) {
+			for (Map.Entry<String, Long> entry : startUpMillis.entrySet()) {
+				startUpReport.addParameter(entry.getKey(), entry.getValue());
+			}
+		}
+		startUpReport.publish();
+	}
 
-		log.config(LogBuilder.createSystemMessage().addAction("load Photos").toString());
-		PhotoManager.getInstance().init();
+	/**
+	 * @methodtype command
+	 */
+	protected void runStartUpPhase(String name, Runnable phase) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction(name).publish();
+		long start = System.nanoTime();
+		phase.run();
+		startUpMillis.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public Map<String, Long> getStartUpMillis() {
+		synchronized (startUpMillis) {
+			return new LinkedHashMap<String, Long>(startUpMillis);
+		}
+	}
+
+	/**
+	 * On App Engine, threads need to be created by the ThreadManager to access its services.
+	 *
+	 * @methodtype get
+	 */
+	protected ThreadFactory getStartUpThreadFactory() {
+		if (SystemProperty.environment.value() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ModelSnapshot createModelSnapshot() {
+		String fileName = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+		return (fileName == null) ? null : new ModelSnapshot(Paths.get(fileName));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Returns whether the model could be restored; if not, it has to be loaded from the datastore.
+	 */
+	protected boolean restoreModelSnapshot() {
+		try {
+			if (modelSnapshot.read()) {
+				modelSnapshot.restore();
+				return true;
+			}
+		} catch (IOException | RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Could not restore model snapshot", ex).publish();
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void saveModelSnapshot() {
+		try {
+			synchronized (modelSnapshot) {
+				modelSnapshot.capture();
+				modelSnapshot.write();
+			}
+		} catch (IOException | RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Could not save model snapshot", ex).publish();
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage() {
+		if (FILE_SYSTEM_IMAGE_STORAGE.equals(System.getProperty(IMAGE_STORAGE_PROPERTY))) {
+			return new FileSystemImageStorage(Paths.get(SysConfig.getPhotosDir().asString()));
+		}
+		return new DatastoreAdapter();
+	}
 
 	/**
 	 *
@@ -72,6 +262,13 @@ public abstract class ModelMain extends AbstractMain {
 	protected void shutDown() throws Exception {
 		saveAll();
 
+		if (snapshotExecutor != null) {
+			snapshotExecutor.shutdownNow();
+		}
+		if (modelSnapshot != null) {
+			saveModelSnapshot();
+		}
+
 		super.shutDown();
 	}
 
@@ -83,6 +280,7 @@ public abstract class ModelMain extends AbstractMain {
 		BeerPhotoManager.getInstance().savePhotos();
 		UserManager.getInstance().saveClients();
 		GlobalsManager.getInstance().saveGlobals();
+		WriteBehindQueue.getInstance().flush();
 	}
 
 	/**
@@ -20,6 +20,7 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.utils.SystemProperty;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
 import org.wahlzeit.handlers.*;
@@ -36,7 +37,10 @@ import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -52,6 +56,11 @@ public class ServiceMain extends ModelMain {
 
 	private static final String PICTURES_PATH = "pictures";
 
+	/**
+	 * System property; if "true", templates are reloaded when their files change. Not available on App Engine.
+	 */
+	public static final String RELOAD_TEMPLATES_PROPERTY = "org.wahlzeit.reloadTemplates";
+
 	/**
 	 *
 	 */
@@ -103,30 +112,36 @@ public class ServiceMain extends ModelMain {
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
 
-		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").publish();
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").publish();
 		configureWebPartTemplateService();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").publish();
 		configureWebPartHandlers();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").publish();
 		configureLanguageModels();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Add default user with pictures").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Add default user with pictures").publish();
 		addDefaultUserWithPictures();
 
-		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").publish();
 	}
 
 	/**
 	 *
 	 */
-	public void configureWebPartTemplateService() {
+	public void configureWebPartTemplateService() throws IOException {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+		templateService.loadTemplates();
+
+		if (Boolean.getBoolean(RELOAD_TEMPLATES_PROPERTY) && SystemProperty.environment.value() == null) {
+			templateService.startWatching(Executors.defaultThreadFactory());
+		}
 	}
 
 	/**
@@ -252,6 +267,8 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		WebPartTemplateService.getInstance().stopWatching();
+
 		super.shutDown();
 	}
 
@@ -57,6 +57,7 @@ public class BeerPhoto extends Photo {
     }
 
     public BeerPhoto(Beer beer){
+        super(PhotoId.getNextId());
         mBeer = beer;
     }
 
@@ -66,7 +66,7 @@ public class BeerPhotoFactory extends PhotoFactory {
      * @methodtype factory
      */
     public Photo createPhoto() {
-        return new BeerPhoto();
+        return new BeerPhoto(PhotoId.getNextId());
     }
 
     /**
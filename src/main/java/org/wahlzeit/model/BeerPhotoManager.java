@@ -25,7 +25,6 @@ package org.wahlzeit.model;
 
 
 import com.google.appengine.api.images.Image;
-import org.wahlzeit.services.Persistent;
 
 import java.io.IOException;
 import java.util.*;
@@ -47,27 +46,6 @@ public class BeerPhotoManager extends PhotoManager {
         super.photoTagCollector = BeerPhotoFactory.getInstance().createPhotoTagCollector();
     }
 
-    /**
-     *
-     */
-    @Override
-    public Photo getPhotoFromId(PhotoId id) {
-        if (id == null) {
-            return null;
-        }
-
-        Photo result = doGetPhotoFromId(id);
-
-        if (result == null) {
-            result = BeerPhotoFactory.getInstance().loadPhoto(id);
-            if (result != null) {
-                doAddPhoto(result);
-            }
-        }
-
-        return result;
-    }
-
     /**
      * @methodtype command
      *
@@ -84,18 +62,6 @@ public class BeerPhotoManager extends PhotoManager {
         updateObject(photo);
     }
 
-    @Override
-    protected void updateDependents(Persistent obj) {
-        if (obj instanceof BeerPhoto) {
-            Photo photo = (Photo) obj;
-            saveScaledImages(photo);
-            updateTags(photo);
-            UserManager userManager = UserManager.getInstance();
-            Client owner = userManager.getClientById(photo.getOwnerId());
-            userManager.saveClient(owner);
-        }
-    }
-
     /**
      * @methodtype command
      *
@@ -33,6 +33,11 @@ public abstract class Case extends DataObject {
 	 */
 	protected static CaseId lastCaseId = CaseId.NULL_ID;
 
+	/**
+	 *
+	 */
+	protected static final IdAllocator caseIdAllocator = new IdAllocator(IdAllocator.Counter.CASE);
+
 	/**
 	 * @methodtype get
 	 */
@@ -50,8 +55,14 @@ public abstract class Case extends DataObject {
 	/**
 	 * @methodtype idiom
 	 */
-	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+	public static CaseId getNextCaseId() {
+		CaseId result = new CaseId(caseIdAllocator.getNextId());
+		synchronized (Case.class) {
+			if (result.asInt() > lastCaseId.asInt()) {
+				lastCaseId = result;
+			}
+		}
+		return result;
 	}
 
 }
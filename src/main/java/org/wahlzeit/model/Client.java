@@ -20,20 +20,32 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Key;
+import com.googlecode.objectify.annotation.AlsoLoad;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreLoad;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
+import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -57,6 +69,12 @@ public abstract class Client implements Serializable, Persistent {
 	public static final String ID = "id";
 	public static final String NICK_NAME = "nickName";
 	public static final String LANGUAGE = "language";
+	public static final String MODIFICATION_TIME = "modificationTime";
+
+	/**
+	 *
+	 */
+	public static final int MAX_RECENTLY_PRAISED_PHOTOS = 10;
 
 	@Id
 	protected String id;
@@ -79,15 +97,38 @@ public abstract class Client implements Serializable, Persistent {
 	@Ignore
 	protected int writeCount = 0;
 
+	/**
+	 * Raised by every write and never reset, like the version of a DataObject
+	 */
+	@Ignore
+	protected transient volatile long version = DataObject.nextVersion();
+
 	private String httpSessionId;
 
 	protected Language language = Language.ENGLISH;
 
 	protected PhotoSize photoSize = PhotoSize.MEDIUM;
 
-	protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Stored in the compact form of PhotoIdSet rather than as lists of embedded PhotoIds; loaded by
+	 * loadPraisedPhotoIds and loadSkippedPhotoIds, which read all forms ever stored
+	 */
+	@IgnoreLoad
+	protected PhotoIdSet praisedPhotoIds = new PhotoIdSet();
+
+	@IgnoreLoad
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
+
+	/**
+	 * The most recently praised photos, latest last; a PhotoIdSet does not remember the order
+	 */
+	protected List<PhotoId> recentlyPraisedPhotoIds = new ArrayList<PhotoId>();
 
-	protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Time of the last save; lets a warm start fetch only the clients changed since its snapshot
+	 */
+	@Index
+	protected long modificationTime = 0;
 
 
 	/**
@@ -110,7 +151,7 @@ public abstract class Client implements Serializable, Persistent {
 		// use some of the existing properties for the new user
 		if (previousClient != null) {
 			this.setLanguage(previousClient.getLanguage());
-			this.setPraisedPhotoIds(previousClient.getPraisedPhotoIds());
+			this.setPraisedPhotoIds(previousClient.getPraisedPhotoIds().copy());
 			this.setPhotoSize(previousClient.getPhotoSize());
 		}
 
@@ -211,6 +252,14 @@ public abstract class Client implements Serializable, Persistent {
 	 */
 	public void incWriteCount() {
 		writeCount++;
+		version = DataObject.nextVersion();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
 	}
 
 	/**
@@ -220,6 +269,21 @@ public abstract class Client implements Serializable, Persistent {
 		writeCount = 0;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@OnSave
+	protected void updateModificationTime() {
+		modificationTime = System.currentTimeMillis();
+	}
+
 	/**
 	 *
 	 */
@@ -287,14 +351,14 @@ public abstract class Client implements Serializable, Persistent {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getPraisedPhotoIds() {
+	public PhotoIdSet getPraisedPhotoIds() {
 		return praisedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setPraisedPhotoIds(List<PhotoId> praisedPhotoIds) {
+	public void setPraisedPhotoIds(PhotoIdSet praisedPhotoIds) {
 		this.praisedPhotoIds = praisedPhotoIds;
 	}
 
@@ -303,6 +367,11 @@ public abstract class Client implements Serializable, Persistent {
 	 */
 	public void addPraisedPhotoId(PhotoId ratedPhotoId) {
 		praisedPhotoIds.add(ratedPhotoId);
+		recentlyPraisedPhotoIds.remove(ratedPhotoId);
+		recentlyPraisedPhotoIds.add(ratedPhotoId);
+		if (recentlyPraisedPhotoIds.size() > MAX_RECENTLY_PRAISED_PHOTOS) {
+			recentlyPraisedPhotoIds.remove(0);
+		}
 		removeSkippedPhotoId(ratedPhotoId);
 	}
 
@@ -310,10 +379,10 @@ public abstract class Client implements Serializable, Persistent {
 	 * @methodtype get
 	 */
 	public Photo getLastPraisedPhoto() {
-		int indexOfLastPraisedPhoto = praisedPhotoIds.size() - 1;
+		int indexOfLastPraisedPhoto = recentlyPraisedPhotoIds.size() - 1;
 		Photo result = null;
 		while (indexOfLastPraisedPhoto >= 0 && result == null) {
-			PhotoId lastPraisedPhotoId = praisedPhotoIds.get(indexOfLastPraisedPhoto);
+			PhotoId lastPraisedPhotoId = recentlyPraisedPhotoIds.get(indexOfLastPraisedPhoto);
 			result = PhotoManager.getInstance().getPhoto(lastPraisedPhotoId);
 			if (result != null && !result.isVisible()) {
 				result = null;
@@ -323,17 +392,99 @@ public abstract class Client implements Serializable, Persistent {
 		return result;
 	}
 
+	/**
+	 * Clients saved before the praised photos were kept in a set still have a list of them, in the order of praise.
+	 *
+	 * @methodtype set
+	 */
+	protected void loadPraisedPhotoIds(@AlsoLoad("praisedPhotoIds") Object storedIds) {
+		praisedPhotoIds = asPhotoIdSet(storedIds);
+		if (storedIds instanceof List) {
+			recentlyPraisedPhotoIds.clear();
+			List<?> storedList = (List<?>) storedIds;
+			for (Object storedId : storedList.subList(Math.max(0, storedList.size() - MAX_RECENTLY_PRAISED_PHOTOS),
+					storedList.size())) {
+				PhotoId id = PhotoId.getIdFromInt(asPhotoIdValue(storedId));
+				if (!id.isNullId()) {
+					recentlyPraisedPhotoIds.add(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void loadSkippedPhotoIds(@AlsoLoad("skippedPhotoIds") Object storedIds) {
+		skippedPhotoIds = asPhotoIdSet(storedIds);
+	}
+
+	/**
+	 * Reads a set of photo ids from its stored form, from the Java-serialized form it was first stored in, or from a
+	 * list of embedded PhotoIds.
+	 *
+	 * @methodtype conversion
+	 */
+	protected static PhotoIdSet asPhotoIdSet(Object storedIds) {
+		if (storedIds instanceof Blob) {
+			byte[] bytes = ((Blob) storedIds).getBytes();
+			try {
+				if (isJavaSerialized(bytes)) {
+					try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+						return (PhotoIdSet) in.readObject();
+					}
+				}
+				return PhotoIdSet.fromBytes(bytes);
+			} catch (IOException | ClassNotFoundException ex) {
+				throw new IllegalStateException("could not read stored photo ids", ex);
+			}
+		}
+
+		PhotoIdSet result = new PhotoIdSet();
+		if (storedIds instanceof Collection) {
+			for (Object storedId : (Collection<?>) storedIds) {
+				int id = asPhotoIdValue(storedId);
+				if (id > 0) {
+					result.add(id);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isJavaSerialized(byte[] bytes) {
+		return bytes.length >= 2 && (short) (bytes[0] << 8 | bytes[1] & 0xff) == ObjectStreamConstants.STREAM_MAGIC;
+	}
+
+	/**
+	 * Returns the value of an embedded PhotoId, or 0 if there is none.
+	 *
+	 * @methodtype conversion
+	 */
+	protected static int asPhotoIdValue(Object storedId) {
+		if (storedId instanceof EmbeddedEntity) {
+			Object value = ((EmbeddedEntity) storedId).getProperty("value");
+			if (value instanceof Number) {
+				return ((Number) value).intValue();
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -348,8 +499,6 @@ public abstract class Client implements Serializable, Persistent {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
 	}
 }
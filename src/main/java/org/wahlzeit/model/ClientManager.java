@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -23,10 +25,15 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	protected static Long lastClientId = 0L;
 
+	/**
+	 *
+	 */
+	protected static final IdAllocator clientIdAllocator = new IdAllocator(IdAllocator.Counter.CLIENT);
+
 	/**
 	 * Maps IDs to user
 	 */
-	protected Map<String, Client> idClientMap = new HashMap<String, Client>();
+	protected Map<String, Client> idClientMap = new ConcurrentHashMap<String, Client>();
 
 	protected HashMap<String, Client> httpSessionIdToClientMap = new HashMap<String, Client>();
 
@@ -73,7 +80,7 @@ public abstract class ClientManager extends ObjectManager {
 		idClientMap.put(client.getId(), client);
 		writeObject(client);
 		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).publish();
 	}
 
 	/**
@@ -126,9 +133,9 @@ public abstract class ClientManager extends ObjectManager {
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		httpSessionIdToClientMap.put(httpSessionId, client);
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).publish();
 	}
 
 
@@ -180,8 +187,14 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype get
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		Long result = (long) clientIdAllocator.getNextId();
+		synchronized (this) {
+			if (result > lastClientId) {
+				lastClientId = result;
+			}
+		}
+		return result;
 	}
 
 
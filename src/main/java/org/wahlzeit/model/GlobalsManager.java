@@ -2,9 +2,11 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.servlets.AbstractServlet;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.wahlzeit.services.OfyService.ofy;
@@ -91,22 +93,93 @@ public class GlobalsManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype factory Returns the current global variables.
+	 */
+	public Globals createGlobals() {
+		Globals result = new Globals();
+		result.setLastUserId(UserManager.getInstance().getLastClientId());
+		result.setLastPhotoId(PhotoId.getCurrentIdAsInt());
+		result.setLastCaseId(Case.getLastCaseId().asInt());
+		result.setLastSessionId(AbstractServlet.getLastSessionId());
+		return result;
+	}
+
+	/**
+	 * @methodtype command Raises the global variables to at least the given ones, so no id is handed out twice.
+	 */
+	public synchronized void raiseGlobals(Globals minimum) {
+		UserManager userManager = UserManager.getInstance();
+		if (minimum.getLastUserId() != null && minimum.getLastUserId() > userManager.getLastClientId()) {
+			userManager.setLastClientId(minimum.getLastUserId());
+		}
+		if (minimum.getLastPhotoId() > PhotoId.getCurrentIdAsInt()) {
+			PhotoId.setCurrentIdFromInt(minimum.getLastPhotoId());
+		}
+		if (minimum.getLastCaseId() > Case.getLastCaseId().asInt()) {
+			Case.setLastCaseId(new CaseId(minimum.getLastCaseId()));
+		}
+		if (minimum.getLastSessionId() > AbstractServlet.getLastSessionId()) {
+			AbstractServlet.setLastSessionId(minimum.getLastSessionId());
+		}
+	}
+
+	/**
+	 * @methodtype command Saves all global variables. As other instances reserve ids in the stored globals, these are
+	 * only ever raised, never lowered.
 	 */
 	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
+		final Globals current = createGlobals();
+		log.info(current.asString());
 
 		ObjectifyService.run(new Work<Void>() {
 			@Override
 			public Void run() {
-				writeObject(globals);
-				return null;
+				return ofy().transact(new Work<Void>() {
+					@Override
+					public Void run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						if (globals == null) {
+							globals = current;
+						}
+						for (IdAllocator.Counter counter : IdAllocator.Counter.values()) {
+							if (counter.getLastId(current) > counter.getLastId(globals)) {
+								counter.setLastId(globals, counter.getLastId(current));
+							}
+						}
+						writeObject(globals);
+						return null;
+					}
+				});
 			}
 		});
 	}
+
+	/**
+	 * @methodtype command Reserves the given number of ids of the counter in the stored globals and returns the last
+	 * of them. The transaction makes sure that no two instances reserve the same ids.
+	 */
+	public long reserveIds(final IdAllocator.Counter counter, final int noIds) {
+		long result = ObjectifyService.run(new Work<Long>() {
+			@Override
+			public Long run() {
+				return ofy().transact(new Work<Long>() {
+					@Override
+					public Long run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						if (globals == null) {
+							globals = new Globals();
+						}
+						long lastId = counter.getLastId(globals) + noIds;
+						counter.setLastId(globals, lastId);
+						ofy().save().entity(globals).now();
+						return lastId;
+					}
+				});
+			}
+		});
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("reserved ids of", counter.name()).addParameter("up to", result).publish();
+		return result;
+	}
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An IdAllocator hands out the ids of one counter of the Globals. It reserves a block of ids with a single
+ * transactional update of the Globals and then hands them out from an AtomicInteger without locking. As every block
+ * is reserved in the datastore, instances running side by side never hand out the same id; ids of blocks that have
+ * not been used up when an instance stops are skipped.
+ */
+public class IdAllocator {
+
+	/**
+	 * The counters of the Globals that ids are allocated from
+	 */
+	public enum Counter {
+		PHOTO {
+			@Override
+			public long getLastId(Globals globals) {
+				return globals.getLastPhotoId();
+			}
+
+			@Override
+			public void setLastId(Globals globals, long lastId) {
+				globals.setLastPhotoId((int) lastId);
+			}
+		},
+		CLIENT {
+			@Override
+			public long getLastId(Globals globals) {
+				return (globals.getLastUserId() == null) ? 0 : globals.getLastUserId();
+			}
+
+			@Override
+			public void setLastId(Globals globals, long lastId) {
+				globals.setLastUserId(lastId);
+			}
+		},
+		CASE {
+			@Override
+			public long getLastId(Globals globals) {
+				return globals.getLastCaseId();
+			}
+
+			@Override
+			public void setLastId(Globals globals, long lastId) {
+				globals.setLastCaseId((int) lastId);
+			}
+		},
+		SESSION {
+			@Override
+			public long getLastId(Globals globals) {
+				return globals.getLastSessionId();
+			}
+
+			@Override
+			public void setLastId(Globals globals, long lastId) {
+				globals.setLastSessionId((int) lastId);
+			}
+		};
+
+		/**
+		 * @methodtype get
+		 */
+		public abstract long getLastId(Globals globals);
+
+		/**
+		 * @methodtype set
+		 */
+		public abstract void setLastId(Globals globals, long lastId);
+	}
+
+	/**
+	 * A range of reserved ids; nextId may run past lastId, which means the block is used up
+	 */
+	protected static class IdBlock {
+
+		protected final AtomicInteger nextId;
+		protected final int lastId;
+
+		protected IdBlock(int firstId, int lastId) {
+			this.nextId = new AtomicInteger(firstId);
+			this.lastId = lastId;
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 100;
+
+	/**
+	 * Last ids reserved without access to the Datastore
+	 */
+	protected static final Map<Counter, AtomicLong> LOCAL_LAST_IDS = new EnumMap<Counter, AtomicLong>(Counter.class);
+
+	static {
+		for (Counter counter : Counter.values()) {
+			LOCAL_LAST_IDS.put(counter, new AtomicLong());
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected final Counter counter;
+	protected final int blockSize;
+
+	/**
+	 * Initially used up, so the first id reserves a block
+	 */
+	protected final AtomicReference<IdBlock> block = new AtomicReference<IdBlock>(new IdBlock(1, 0));
+
+	/**
+	 *
+	 */
+	public IdAllocator(Counter counter) {
+		this(counter, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 *
+	 */
+	public IdAllocator(Counter counter, int blockSize) {
+		if (counter == null) {
+			throw new IllegalArgumentException("Counter counter may not be null");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive");
+		}
+
+		this.counter = counter;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNextId() {
+		while (true) {
+			IdBlock currentBlock = block.get();
+			int result = currentBlock.nextId.getAndIncrement();
+			if (result <= currentBlock.lastId) {
+				return result;
+			}
+			replaceUsedUpBlock(currentBlock);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Only one thread reserves the next block; the others wait for it and then draw from the new block.
+	 */
+	protected synchronized void replaceUsedUpBlock(IdBlock usedUpBlock) {
+		if (block.get() == usedUpBlock) {
+			block.set(doReserveBlock());
+		}
+	}
+
+	/**
+	 * Without access to the Datastore, e.g. in unit tests, blocks are only reserved in memory.
+	 *
+	 * @methodtype factory
+	 * @methodproperty primitive
+	 */
+	protected IdBlock doReserveBlock() {
+		long lastId;
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			lastId = GlobalsManager.getInstance().reserveIds(counter, blockSize);
+		} else {
+			lastId = LOCAL_LAST_IDS.get(counter).addAndGet(blockSize);
+		}
+		return new IdBlock((int) (lastId - blockSize + 1), (int) lastId);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Counter getCounter() {
+		return counter;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static org.wahlzeit.services.OfyService.ofy;
+
+/**
+ * A ModelSnapshot is a binary image of the in-memory model: the global counters, all users, the tags and visibility
+ * of all photos, and the cached photos. Restoring it at start up replaces reading all users and photos from the
+ * datastore; only entities saved since the snapshot was taken are read.
+ *
+ * The file starts with a magic number, the format version and the creation time, and ends with a CRC32 of everything
+ * before it. Entities are stored in the Datastore's own protocol buffer encoding, so the snapshot covers all of their
+ * persistent fields.
+ */
+public class ModelSnapshot {
+
+	private static final Logger log = Logger.getLogger(ModelSnapshot.class.getName());
+
+	/**
+	 * Version 2 snapshots were taken after all photos have been migrated to the current Photo.SCHEMA_VERSION; older
+	 * ones are rejected, so the next start up loads and migrates all photos
+	 */
+	public static final int MAGIC = 0x575A534E; // "WZSN"
+	public static final int VERSION = 2;
+
+	/**
+	 * Entities saved this long before the snapshot are read again, to allow for clock skew between instances
+	 */
+	public static final long CHANGE_MARGIN_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 *
+	 */
+	protected static final int CHECKSUM_LENGTH = 8;
+	protected static final byte VISIBLE_FLAG = 1;
+	protected static final byte CACHED_FLAG = 2;
+
+	/**
+	 *
+	 */
+	protected final Path file;
+
+	/**
+	 * Contents of the snapshot
+	 */
+	protected long creationTime = 0;
+	protected Globals globals = null;
+	protected List<User> users = new ArrayList<User>();
+	protected Map<Integer, Set<String>> photoConditions = new LinkedHashMap<Integer, Set<String>>();
+	protected PhotoIdSet visiblePhotoIds = new PhotoIdSet();
+	protected Map<Integer, Photo> cachedPhotos = new LinkedHashMap<Integer, Photo>();
+
+	/**
+	 *
+	 */
+	public ModelSnapshot(Path file) {
+		if (file == null) {
+			throw new IllegalArgumentException("Path file may not be null");
+		}
+		this.file = file;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos() {
+		return photoConditions.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoUsers() {
+		return users.size();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Takes the contents of the snapshot from the current model.
+	 */
+	public void capture() {
+		creationTime = System.currentTimeMillis();
+		globals = GlobalsManager.getInstance().createGlobals();
+
+		users.clear();
+		for (Client client : UserManager.getInstance().idClientMap.values()) {
+			if (client instanceof User) {
+				users.add((User) client);
+			}
+		}
+
+		PhotoManager photoManager = PhotoManager.getInstance();
+		photoConditions.clear();
+		visiblePhotoIds = photoManager.getVisiblePhotoIds();
+		for (PhotoId id : photoManager.photoIds) {
+			photoConditions.put(id.asInt(), photoManager.getPhotoTagIndex().getConditions(id));
+		}
+		cachedPhotos.clear();
+		for (Photo photo : photoManager.photoCache.values()) {
+			cachedPhotos.put(photo.getId().asInt(), photo);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes the contents to a temporary file first and then replaces the snapshot file, so readers never see a
+	 * partially written snapshot.
+	 */
+	public void write() throws IOException {
+		Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream fileOut = Files.newOutputStream(tempFile)) {
+				CheckedOutputStream checkedOut = new CheckedOutputStream(fileOut, new CRC32());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checkedOut));
+				doWrite(out);
+				out.flush();
+				new DataOutputStream(fileOut).writeLong(checkedOut.getChecksum().getValue());
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("wrote model snapshot").
+				addParameter("users", users.size()).addParameter("photos", photoConditions.size()).
+				addParameter("cached photos", cachedPhotos.size()).publish();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doWrite(final DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(creationTime);
+
+		List<byte[]> encodedUsers = ObjectifyService.run(new Work<List<byte[]>>() {
+			@Override
+			public List<byte[]> run() {
+				List<byte[]> result = new ArrayList<byte[]>(users.size() + 1);
+				result.add(asBytes(globals));
+				for (User user : users) {
+					result.add(asBytes(user));
+				}
+				return result;
+			}
+		});
+		writeBytes(out, encodedUsers.get(0));
+		out.writeInt(users.size());
+		for (byte[] encodedUser : encodedUsers.subList(1, encodedUsers.size())) {
+			writeBytes(out, encodedUser);
+		}
+
+		out.writeInt(photoConditions.size());
+		for (Map.Entry<Integer, Set<String>> entry : photoConditions.entrySet()) {
+			int id = entry.getKey();
+			final Photo photo = cachedPhotos.get(id);
+			out.writeInt(id);
+			out.writeByte((visiblePhotoIds.contains(id) ? VISIBLE_FLAG : 0) | (photo != null ? CACHED_FLAG : 0));
+			out.writeInt(entry.getValue().size());
+			for (String condition : entry.getValue()) {
+				writeBytes(out, condition.getBytes(StandardCharsets.UTF_8));
+			}
+			if (photo != null) {
+				writeBytes(out, ObjectifyService.run(new Work<byte[]>() {
+					@Override
+					public byte[] run() {
+						return asBytes(photo);
+					}
+				}));
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the snapshot file into the contents. Returns false, leaving the contents untouched, if there is no
+	 * snapshot or if it is corrupt or of another format version.
+	 */
+	public boolean read() throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (!isValid(buffer)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("Ignoring invalid model snapshot", file.toString()).publish();
+			return false;
+		}
+
+		try {
+			doRead(buffer);
+		} catch (BufferUnderflowException | IllegalArgumentException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Ignoring unreadable model snapshot", ex).publish();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isValid(ByteBuffer buffer) {
+		int length = buffer.limit() - CHECKSUM_LENGTH;
+		if (length < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return false;
+		}
+
+		ByteBuffer content = buffer.duplicate();
+		content.limit(length);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue() == buffer.getLong(length);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRead(final ByteBuffer buffer) {
+		buffer.position(8);
+		final long newCreationTime = buffer.getLong();
+
+		final List<User> newUsers = new ArrayList<User>();
+		final Map<Integer, Set<String>> newPhotoConditions = new LinkedHashMap<Integer, Set<String>>();
+		final PhotoIdSet newVisiblePhotoIds = new PhotoIdSet();
+		final Map<Integer, Photo> newCachedPhotos = new LinkedHashMap<Integer, Photo>();
+
+		Globals newGlobals = ObjectifyService.run(new Work<Globals>() {
+			@Override
+			public Globals run() {
+				Globals result = (Globals) fromBytes(readBytes(buffer));
+				for (int i = buffer.getInt(); i > 0; i--) {
+					newUsers.add((User) fromBytes(readBytes(buffer)));
+				}
+
+				for (int i = buffer.getInt(); i > 0; i--) {
+					int id = buffer.getInt();
+					byte flags = buffer.get();
+					Set<String> conditions = new HashSet<String>();
+					for (int j = buffer.getInt(); j > 0; j--) {
+						conditions.add(new String(readBytes(buffer), StandardCharsets.UTF_8));
+					}
+					newPhotoConditions.put(id, conditions);
+					if ((flags & VISIBLE_FLAG) != 0) {
+						newVisiblePhotoIds.add(id);
+					}
+					if ((flags & CACHED_FLAG) != 0) {
+						newCachedPhotos.put(id, (Photo) fromBytes(readBytes(buffer)));
+					}
+				}
+				return result;
+			}
+		});
+
+		creationTime = newCreationTime;
+		globals = newGlobals;
+		users = newUsers;
+		photoConditions = newPhotoConditions;
+		visiblePhotoIds = newVisiblePhotoIds;
+		cachedPhotos = newCachedPhotos;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Puts the contents into the model, followed by everything saved since the snapshot was taken. Needs to be called
+	 * after the globals have been loaded and instead of loading users and photos.
+	 */
+	public void restore() {
+		long changedSince = creationTime - CHANGE_MARGIN_MILLIS;
+
+		// ids of photos in the snapshot must be valid before they are used
+		GlobalsManager.getInstance().raiseGlobals(globals);
+		UserManager.getInstance().restoreUsers(users, changedSince);
+		PhotoManager.getInstance().restorePhotos(photoConditions, visiblePhotoIds, cachedPhotos.values(), changedSince);
+	}
+
+	/**
+	 * Needs to be called within an Objectify context.
+	 *
+	 * @methodtype conversion
+	 */
+	protected byte[] asBytes(Object entity) {
+		return toBytes(ofy().save().toEntity(entity));
+	}
+
+	/**
+	 * Needs to be called within an Objectify context. Converting runs the save callbacks, which fold the praise and
+	 * touch the modification time; both are put back, so taking a snapshot leaves the live photo as it was. The
+	 * photo's monitor keeps a save from folding the praise meanwhile.
+	 *
+	 * @methodtype conversion
+	 */
+	protected byte[] asBytes(Photo photo) {
+		Entity result;
+		long modificationTime;
+		synchronized (photo) {
+			int praiseSum = photo.praiseSum;
+			int noVotes = photo.noVotes;
+			modificationTime = photo.modificationTime;
+			int schemaVersion = photo.schemaVersion;
+			result = ofy().save().toEntity(photo);
+			photo.unfoldedPraiseSum.add(photo.praiseSum - praiseSum);
+			photo.unfoldedNoVotes.add(photo.noVotes - noVotes);
+			photo.praiseSum = praiseSum;
+			photo.noVotes = noVotes;
+			photo.modificationTime = modificationTime;
+			photo.schemaVersion = schemaVersion;
+		}
+		result.setIndexedProperty(Photo.MODIFICATION_TIME, modificationTime);
+		return toBytes(result);
+	}
+
+	/**
+	 * Needs to be called within an Objectify context. Like for photos, the modification time set by the save
+	 * callback is put back.
+	 *
+	 * @methodtype conversion
+	 */
+	protected byte[] asBytes(Client client) {
+		long modificationTime = client.modificationTime;
+		Entity result = ofy().save().toEntity(client);
+		client.modificationTime = modificationTime;
+		result.setIndexedProperty(Client.MODIFICATION_TIME, modificationTime);
+		return toBytes(result);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static byte[] toBytes(Entity entity) {
+		return EntityTranslator.convertToPb(entity).toByteArray();
+	}
+
+	/**
+	 * Needs to be called within an Objectify context.
+	 *
+	 * @methodtype conversion
+	 */
+	protected Object fromBytes(byte[] bytes) {
+		return ofy().load().fromEntity(EntityTranslator.createFromPbBytes(bytes));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static byte[] readBytes(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("invalid length " + length + " in snapshot");
+		}
+		byte[] result = new byte[length];
+		buffer.get(result);
+		return result;
+	}
+
+}
@@ -20,12 +20,13 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
@@ -35,6 +36,8 @@ import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
@@ -70,6 +73,21 @@ public static final String OWNER_ID = "ownerId";
 public static final String STATUS = "status";
 public static final String IS_INVISIBLE = "isInvisible";
 public static final String UPLOADED_ON = "uploadedOn";
+public static final String MODIFICATION_TIME = "modificationTime";
+
+/**
+ * Field groups for dirty tracking; see DataObject
+ */
+public static final int PRAISE_FIELDS = 1;
+public static final int STATUS_FIELDS = 1 << 1;
+public static final int TAG_FIELDS = 1 << 2;
+public static final int OWNER_FIELDS = 1 << 3;
+public static final int IMAGE_FIELDS = 1 << 4;
+
+/**
+ * Version 1 indexes the id, so that photos not in the cache can be loaded by it
+ */
+public static final int SCHEMA_VERSION = 1;
 
 /**
  *
@@ -79,6 +97,7 @@ public static final int MAX_PHOTO_HEIGHT = 600;
 public static final int MAX_THUMB_PHOTO_WIDTH = 105;
 public static final int MAX_THUMB_PHOTO_HEIGHT = 150;
 
+@Index
 protected PhotoId id = null;
 protected Location location;
 /**
@@ -88,10 +107,11 @@ protected String ownerId;
 
 /**
  * Each photo can be viewed in different sizes (XS, S, M, L, XL)
- * Images are pre-computed in these sizes to optimize bandwidth when requested.
+ * Images are pre-computed in these sizes to optimize bandwidth when requested. Sizes may also be added on demand while
+ * the photo is in use, so the map needs to be thread-safe.
  */
 @Ignore
-transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+transient protected Map<PhotoSize, Image> images = new ConcurrentHashMap<PhotoSize, Image>();
 
 /**
  *
@@ -124,11 +144,31 @@ protected int praiseSum = 10;
 protected int noVotes = 1;
 protected int noVotesAtLastNotification = 1;
 
+/**
+ * Votes not yet folded into praiseSum and noVotes; striped, so concurrent votes on a popular photo neither contend
+ * nor get lost
+ */
+@Ignore
+protected final LongAdder unfoldedPraiseSum = new LongAdder();
+@Ignore
+protected final LongAdder unfoldedNoVotes = new LongAdder();
+
 /**
  *
  */
 protected long creationTime = System.currentTimeMillis();
 
+/**
+ * Time of the last save; lets a warm start fetch only the photos changed since its snapshot
+ */
+@Index
+protected long modificationTime = 0;
+
+/**
+ * Version of the stored form; photos saved before versions were introduced have version 0
+ */
+protected int schemaVersion = 0;
+
 /**
  * The default type is jpg
  */
@@ -147,7 +187,7 @@ protected String ending = "jpg";
  *
  */
 public Photo() {
-		id = PhotoId.getNextId();
+		// do nothing, necessary for Objectify; photos created by the PhotoFactory get their id from it
 		incWriteCount();
 		}
 
@@ -201,6 +241,17 @@ public void setImage(PhotoSize photoSize, Image image) {
 	this.images.put(photoSize, image);
 }
 
+/**
+ * @methodtype get
+ */
+public long getImagesSize() {
+	long result = 0;
+	for (Image image : images.values()) {
+		result += image.getImageData().length;
+	}
+	return result;
+}
+
 /**
  * @methodtype get
  */
@@ -230,7 +281,7 @@ public void setOwnerId(String newName) {
 		throw new IllegalArgumentException("newName may not be null");
 	}
 		ownerId = newName;
-		incWriteCount();
+		incWriteCount(OWNER_FIELDS);
 		}
 
 /**
@@ -266,7 +317,7 @@ public boolean getOwnerNotifyAboutPraise() {
  */
 public void setOwnerNotifyAboutPraise(boolean newNotifyAboutPraise) {
 		ownerNotifyAboutPraise = newNotifyAboutPraise;
-		incWriteCount();
+		incWriteCount(OWNER_FIELDS);
 		}
 
 /**
@@ -284,7 +335,7 @@ public void setOwnerLanguage(Language newLanguage) {
 		throw new IllegalArgumentException("Language language may not be null");
 	}
 		ownerLanguage = newLanguage;
-		incWriteCount();
+		incWriteCount(OWNER_FIELDS);
 		}
 
 /**
@@ -312,7 +363,7 @@ public void setOwnerEmailAddress(EmailAddress newEmailAddress) {
 		throw new IllegalArgumentException("EmailAddress newEmailAddress may not be null");
 	}
 		ownerEmailAddress = newEmailAddress;
-		incWriteCount();
+		incWriteCount(OWNER_FIELDS);
 		}
 
 /**
@@ -366,7 +417,7 @@ public void setWidthAndHeight(int newWidth, int newHeight) {
 
 	maxPhotoSize = PhotoSize.getFromWidthHeight(width, height);
 
-	incWriteCount();
+	incWriteCount(IMAGE_FIELDS);
 	}
 
 /**
@@ -402,16 +453,39 @@ public String getPraiseAsString(ModelConfig cfg) {
  * @methodtype get
  */
 public double getPraise() {
-		return (double) praiseSum / noVotes;
+		return (double) (praiseSum + unfoldedPraiseSum.sum()) / getNoVotes();
 		}
 
 /**
- *
+ * @methodtype get
+ */
+public int getNoVotes() {
+		return noVotes + (int) unfoldedNoVotes.sum();
+		}
+
+/**
+ * Safe to call concurrently; the vote is folded into the persistent fields when the photo is saved.
  */
 public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
-		incWriteCount();
+		unfoldedPraiseSum.add(value);
+		unfoldedNoVotes.increment();
+		incWriteCount(PRAISE_FIELDS);
+		}
+
+/**
+ * Moves the votes collected so far into the persistent fields. Only what has been read is subtracted from the
+ * counters, so votes arriving meanwhile stay for the next fold.
+ *
+ * @methodtype command
+ */
+@OnSave
+public synchronized void foldPraise() {
+		long newPraiseSum = unfoldedPraiseSum.sum();
+		long newNoVotes = unfoldedNoVotes.sum();
+		unfoldedPraiseSum.add(-newPraiseSum);
+		unfoldedNoVotes.add(-newNoVotes);
+		praiseSum += newPraiseSum;
+		noVotes += newNoVotes;
 		}
 
 /**
@@ -436,7 +510,7 @@ public void setStatus(PhotoStatus newStatus) {
 		throw new IllegalArgumentException("Photostatus newStatus may not be null");
 	}
 		status = newStatus;
-		incWriteCount();
+		incWriteCount(STATUS_FIELDS);
 		}
 
 	/**
@@ -464,7 +538,7 @@ public void setStatus(PhotoStatus newStatus) {
 			throw new IllegalArgumentException("Tags newTags may not be null");
 		}
 		tags = newTags;
-		incWriteCount();
+		incWriteCount(TAG_FIELDS);
 	}
 
 	/**
@@ -474,6 +548,38 @@ public void setStatus(PhotoStatus newStatus) {
 		return creationTime;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@OnSave
+	protected void updateModificationTime() {
+		modificationTime = System.currentTimeMillis();
+	}
+
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasCurrentSchema() {
+		return schemaVersion >= SCHEMA_VERSION;
+	}
+
+	/**
+	 * Every save writes the current indexes.
+	 *
+	 * @methodtype set
+	 */
+	@OnSave
+	protected void updateSchemaVersion() {
+		schemaVersion = SCHEMA_VERSION;
+	}
 
 	public String getEnding() {
 		return ending;
@@ -490,14 +596,14 @@ public void setStatus(PhotoStatus newStatus) {
 	 * @methodtype boolean query
 	 */
 	public boolean hasNewPraise() {
-		return noVotes > noVotesAtLastNotification;
+		return getNoVotes() > noVotesAtLastNotification;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setNoNewPraise() {
-		noVotesAtLastNotification = noVotes;
-		incWriteCount();
+		noVotesAtLastNotification = getNoVotes();
+		incWriteCount(PRAISE_FIELDS);
 	}
 }
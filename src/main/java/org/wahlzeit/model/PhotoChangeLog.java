@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.security.SecureRandom;
+
+/**
+ * A PhotoChangeLog records the ids of photos whose visibility or tags have changed, numbered by a growing sequence.
+ * Readers such as a PhotoFilter remember the sequence they have seen and catch up on later changes only. The log
+ * keeps the most recent changes; a reader that has fallen further behind has to start over.
+ */
+public class PhotoChangeLog {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * Ring buffer of changed photo ids; change number n is at n % capacity
+	 */
+	protected final int[] changes;
+
+	/**
+	 * Number of changes recorded so far
+	 */
+	protected long sequence = 0;
+
+	/**
+	 * Tells this log apart from the logs of other instances or runs, whose sequences mean different changes
+	 */
+	protected final long epoch = new SecureRandom().nextLong();
+
+	/**
+	 *
+	 */
+	public PhotoChangeLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 */
+	public PhotoChangeLog(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		changes = new int[capacity];
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void addChange(PhotoId photoId) {
+		if (photoId == null) {
+			throw new IllegalArgumentException("PhotoId photoId may not be null");
+		}
+		changes[(int) (sequence % changes.length)] = photoId.asInt();
+		sequence++;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Returns the ids changed from fromSequence on, oldest first, or null if these are no longer in the log.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized int[] getChangesSince(long fromSequence) {
+		if (fromSequence < sequence - changes.length || fromSequence > sequence) {
+			return null;
+		}
+
+		int[] result = new int[(int) (sequence - fromSequence)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = changes[(int) ((fromSequence + i) % changes.length)];
+		}
+		return result;
+	}
+
+}
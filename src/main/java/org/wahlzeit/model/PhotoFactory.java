@@ -20,10 +20,15 @@
 
 package org.wahlzeit.model;
 
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
 import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -66,7 +71,7 @@ public class PhotoFactory {
 	 */
 	public static synchronized PhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic PhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic PhotoFactory").publish();
 			setInstance(new BeerPhotoFactory());
 		}
 
@@ -88,7 +93,7 @@ public class PhotoFactory {
 	 * @methodtype factory
 	 */
 	public Photo createPhoto() {
-		return new Photo();
+		return new Photo(PhotoId.getNextId());
 	}
 
 	/**
@@ -102,19 +107,22 @@ public class PhotoFactory {
 	}
 
 	/**
-	 * Loads a photo. The Java object is loaded from the Google Datastore, the Images in all sizes are loaded from the
-	 * Google Cloud storage.
+	 * Loads a photo from the Google Datastore. Returns null if there is no such photo. The images are not loaded,
+	 * this is left to the PhotoManager.
 	 */
-	public Photo loadPhoto(PhotoId id) {
-	   /* Photo result =
-                OfyService.ofy().load().type(Photo.class).ancestor(KeyFactory.createKey("Application", "Wahlzeit")).filter(Photo.ID, id).first().now();
-        for (PhotoSize size : PhotoSize.values()) {
-            GcsFilename gcsFilename = new GcsFilename("picturebucket", filename);
-
-
+	public Photo loadPhoto(final PhotoId id) {
+		if (id == null) {
+			throw new IllegalArgumentException("PhotoId id may not be null");
+		}
 
-        }*/
-		return null;
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Load Photo with ID", id.asString()).publish();
+		return ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				return OfyService.ofy().load().type(Photo.class).ancestor(ObjectManager.applicationRootKey).
+						filter(Photo.ID + ".value", id.asInt()).first().now();
+			}
+		});
 	}
 
 
@@ -23,12 +23,13 @@ package org.wahlzeit.model;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -51,12 +52,24 @@ public class PhotoFilter implements Serializable {
 	protected String userName = "";
 	protected Tags tags = Tags.EMPTY_TAGS;
 
+	/**
+	 * Sequence number of displayablePhotoIds that marks it as not built yet
+	 */
+	protected static final long NO_SEQUENCE = -1;
+
+	/**
+	 * Candidates for display, kept up to date with the PhotoChangeLog of the given epoch from changeSequence on. Photo
+	 * filters live in the session, so the candidates are not serialized but built again after deserialization.
+	 */
+	protected transient PhotoIdPool displayablePhotoIds;
+	protected long changeSequence = NO_SEQUENCE;
+	protected long changeLogEpoch = 0;
+
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
 
 	/**
 	 *
@@ -137,10 +150,47 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
+	 * Brings the displayable photo ids up to date. They are only built from scratch the first time, when the photo
+	 * change log has moved on too far, or when it is not the log they were built with, e.g. after the session moved to
+	 * another instance; otherwise just the photos changed since the last call are looked at.
+	 *
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
-		displayablePhotoIds = getFilteredPhotoIds();
+		PhotoManager photoManager = PhotoManager.getInstance();
+		PhotoChangeLog changeLog = photoManager.getPhotoChangeLog();
+		int[] changes = null;
+		if (changeSequence != NO_SEQUENCE && changeLogEpoch == changeLog.getEpoch()) {
+			changes = changeLog.getChangesSince(changeSequence);
+		}
+
+		if (changes == null) {
+			// take the sequence first so that changes made while building are caught up on next time
+			changeSequence = changeLog.getSequence();
+			changeLogEpoch = changeLog.getEpoch();
+			displayablePhotoIds = new PhotoIdPool(getFilteredPhotoIds());
+		} else {
+			changeSequence += changes.length;
+			if (changes.length > 0) {
+				List<String> filterConditions = getFilterConditions();
+				for (int id : changes) {
+					updateDisplayablePhotoId(photoManager, id, filterConditions);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void updateDisplayablePhotoId(PhotoManager photoManager, int id, List<String> filterConditions) {
+		boolean isDisplayable = photoManager.isVisiblePhotoId(id) && !processedPhotoIds.contains(id) &&
+				!skippedPhotoIds.contains(id) && photoManager.getPhotoTagIndex().hasConditions(id, filterConditions);
+		if (isDisplayable) {
+			displayablePhotoIds.add(id);
+		} else {
+			displayablePhotoIds.remove(id);
+		}
 	}
 
 	/**
@@ -148,9 +198,9 @@ public class PhotoFilter implements Serializable {
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
 		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
+			return PhotoId.getIdFromInt(displayablePhotoIds.select(randomNumber));
+		} else if (!skippedPhotoIds.isEmpty()) {
+			return PhotoId.getIdFromInt(skippedPhotoIds.select(randomNumber.nextInt(skippedPhotoIds.size())));
 		} else {
 			return PhotoId.NULL_ID;
 		}
@@ -159,28 +209,39 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
+	public PhotoIdPool getDisplayablePhotoIds() {
 		return displayablePhotoIds;
 	}
 
 	/**
-	 *
+	 * Drops a photo that turned out not to be displayable, whether it was drawn from the candidates or, once these
+	 * ran out, from the skipped photos.
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
-		displayablePhotoIds = newPhotoIds;
+	public void removeDisplayablePhotoId(PhotoId photoId) {
+		displayablePhotoIds.remove(photoId);
+		skippedPhotoIds.remove(photoId);
 	}
 
 	/**
 	 *
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePhotoIds = new PhotoIdPool();
+		changeSequence = NO_SEQUENCE;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		resetDisplayablePhotoIds();
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdSet getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +249,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -202,23 +259,21 @@ public class PhotoFilter implements Serializable {
 		PhotoId photoId = photo.getId();
 		processedPhotoIds.add(photoId);
 		skippedPhotoIds.remove(photoId);
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photoId);
-		}
+		displayablePhotoIds.remove(photoId);
 	}
 
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdSet getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdSet skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -226,53 +281,31 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
+		displayablePhotoIds.remove(skippedPhotoId);
 	}
 
 	/**
-	 *
+	 * Returns the ids of all visible photos that match the filter conditions and have been neither processed nor
+	 * skipped.
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
-
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
-		}
-
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+	protected PhotoIdSet getFilteredPhotoIds() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		List<String> filterConditions = getFilterConditions();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Number of filter conditions", filterConditions.size()).publish();
+
+		PhotoIdSet result = photoManager.getVisiblePhotoIds();
+		if (!filterConditions.isEmpty()) {
+			PhotoIdSet matchingPhotoIds = photoManager.getPhotoTagIndex().getPhotoIds(filterConditions);
+			matchingPhotoIds.retainAll(result);
+			result = matchingPhotoIds;
 		}
+		result.removeAll(processedPhotoIds);
+		result.removeAll(skippedPhotoIds);
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Number of photos to show", result.size())
+				.publish();
 
 		return result;
 	}
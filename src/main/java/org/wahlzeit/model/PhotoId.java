@@ -20,8 +20,10 @@
 
 package org.wahlzeit.model;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -31,24 +33,32 @@ import java.util.Random;
 public class PhotoId implements Serializable {
 
 	/**
-	 * 0 is never returned from nextValue; first value is 1
+	 * 0 is never returned from nextValue; first value is 1. Highest id known to this instance, as other instances
+	 * hand out ids of their own blocks.
 	 */
-	protected static int currentId = 0;
+	protected static final AtomicInteger currentId = new AtomicInteger(0);
 
 	/**
 	 *
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	protected static final IdAllocator idAllocator = new IdAllocator(IdAllocator.Counter.PHOTO);
 
 	/**
-	 *
+	 * Ids are "x" followed by base-36 digits; an int plus ID_START needs at most six of them
+	 */
+	protected static final char PREFIX = 'x';
+	protected static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+	public static final int MAX_STRING_LENGTH = 7;
+
+	/**
+	 * Interned PhotoIds; grows in chunks without copying and is read without locking
 	 */
-	public static final PhotoId NULL_ID = new PhotoId(0);
+	protected static final PhotoIdTable idTable = new PhotoIdTable();
 
 	/**
 	 *
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	public static final PhotoId NULL_ID = idTable.putIfAbsent(new PhotoId(0));
 
 	/**
 	 * What a hack :-)
@@ -68,52 +78,45 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static int getCurrentIdAsInt() {
-		return currentId;
+		return currentId.get();
+	}
+
+	/**
+	 * Ids that have been interned already stay valid, so readers never see a PhotoId object replaced.
+	 */
+	public static void setCurrentIdFromInt(int id) {
+		currentId.set(id);
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+	public static int getNextIdAsInt() {
+		int result = idAllocator.getNextId();
+		raiseCurrentId(result);
+		return result;
 	}
 
 	/**
 	 *
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
+	protected static void raiseCurrentId(int id) {
+		for (int current = currentId.get(); id > current; current = currentId.get()) {
+			if (currentId.compareAndSet(current, id)) {
+				return;
+			}
 		}
-		return currentId;
 	}
 
 	/**
 	 *
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if ((id < 0) || (id > currentId.get())) {
 			return NULL_ID;
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
-		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
-		}
-
-		return result;
+		return idTable.getOrCreate(id);
 	}
 
 	/**
@@ -204,50 +207,107 @@ public class PhotoId implements Serializable {
 		return stringValue;
 	}
 
+	/**
+	 * Appends the string of the interned id, which has been encoded once already.
+	 *
+	 * @methodtype command
+	 */
+	public void appendTo(Appendable out) throws IOException {
+		out.append(stringValue);
+	}
+
 	/**
 	 *
 	 */
 	public static String getFromInt(int id) {
-		StringBuffer result = new StringBuffer(10);
-
-		id += ID_START;
-		for (; id > 0; id = id / 36) {
-			char letterOrDigit;
-			int modulus = id % 36;
-			if (modulus < 10) {
-				letterOrDigit = (char) ((int) '0' + modulus);
-			} else {
-				letterOrDigit = (char) ((int) 'a' - 10 + modulus);
-			}
-			result.insert(0, letterOrDigit);
+		char[] buffer = new char[MAX_STRING_LENGTH];
+		int start = encode(id, buffer, buffer.length);
+		return new String(buffer, start, buffer.length - start);
+	}
+
+	/**
+	 * Writes the string of the id into buffer, ending right before end; returns the index of its first char.
+	 * Does not allocate, so a caller may reuse the buffer.
+	 *
+	 * @methodtype conversion
+	 */
+	public static int encode(int id, char[] buffer, int end) {
+		int i = end;
+		for (long value = (long) id + ID_START; value > 0; value = value / 36) {
+			buffer[--i] = DIGITS[(int) (value % 36)];
+		}
+		buffer[--i] = PREFIX;
+		return i;
+	}
 
+	/**
+	 * Appends the string of the id, most significant digit first, without an intermediate buffer.
+	 *
+	 * @methodtype command
+	 */
+	public static void appendFromInt(int id, Appendable out) throws IOException {
+		long value = (long) id + ID_START;
+		long divisor = 0;
+		if (value > 0) {
+			for (divisor = 1; divisor <= value / 36; divisor *= 36) {
+				// find the most significant digit
+			}
 		}
 
-		return "x" + result.toString();
+		out.append(PREFIX);
+		for (; divisor > 0; divisor = divisor / 36) {
+			out.append(DIGITS[(int) (value / divisor)]);
+			value = value % divisor;
+		}
 	}
 
 	/**
 	 *
 	 */
 	public static int getFromString(String value) {
-		int result = 0;
-		for (int i = 1; i < value.length(); i++) {
-			int temp = 0;
-			char letterOrDigit = value.charAt(i);
-			if (letterOrDigit < 'a') {
-				temp = (int) letterOrDigit - '0';
+		return getFromChars(value, 0, value.length());
+	}
+
+	/**
+	 * Parses the id from chars between start and end, so a slice of a request URI need not be copied first.
+	 * Returns 0, the null id, for anything that is not a photo id.
+	 *
+	 * @methodtype conversion
+	 */
+	public static int getFromChars(CharSequence chars, int start, int end) {
+		if (end - start < 2 || end - start > MAX_STRING_LENGTH || chars.charAt(start) != PREFIX) {
+			return 0;
+		}
+
+		long result = 0;
+		for (int i = start + 1; i < end; i++) {
+			char letterOrDigit = chars.charAt(i);
+			int temp;
+			if (letterOrDigit >= '0' && letterOrDigit <= '9') {
+				temp = letterOrDigit - '0';
+			} else if (letterOrDigit >= 'a' && letterOrDigit <= 'z') {
+				temp = 10 + letterOrDigit - 'a';
 			} else {
-				temp = 10 + (int) letterOrDigit - 'a';
+				return 0;
 			}
 			result = result * 36 + temp;
 		}
 
 		result -= ID_START;
-		if (result < 0) {
-			result = 0;
+		if (result < 0 || result > Integer.MAX_VALUE) {
+			return 0;
 		}
 
-		return result;
+		return (int) result;
+	}
+
+	/**
+	 * Looks up the interned PhotoId for a slice of chars; returns NULL_ID if there is none.
+	 *
+	 * @methodtype conversion
+	 */
+	public static PhotoId getIdFromChars(CharSequence chars, int start, int end) {
+		return getIdFromInt(getFromChars(chars, start, end));
 	}
 
 }
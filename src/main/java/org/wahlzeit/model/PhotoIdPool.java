@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A PhotoIdPool is a set of photo ids that supports adding, removing and drawing a uniformly random member in constant
+ * time. Members are kept in a dense array; an open addressing table maps each id to its position in that array, so a
+ * removed member can be replaced by the last one. A PhotoIdPool is not thread-safe.
+ */
+public class PhotoIdPool implements Serializable {
+
+	/**
+	 *
+	 */
+	protected static final int FREE = -1;
+
+	/**
+	 * Pool members in no particular order
+	 */
+	protected int[] members = new int[16];
+	protected int size = 0;
+
+	/**
+	 * Positions of the members in members, or FREE; rebuilt after deserialization
+	 */
+	protected transient int[] positions = newPositions(32);
+
+	/**
+	 *
+	 */
+	public PhotoIdPool() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdPool(PhotoIdSet photoIds) {
+		for (PhotoIdSet.IntIterator i = photoIds.intIterator(); i.hasNext(); ) {
+			add(i.next());
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		return positions[slotOf(id)] != FREE;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId photoId) {
+		return add(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		int slot = slotOf(id);
+		if (positions[slot] != FREE) {
+			return false;
+		}
+
+		if (size == members.length) {
+			members = Arrays.copyOf(members, size * 2);
+		}
+		members[size] = id;
+		positions[slot] = size;
+		size++;
+
+		if (size * 2 > positions.length) {
+			rehash(positions.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId photoId) {
+		return remove(photoId.asInt());
+	}
+
+	/**
+	 * Removes id by moving the last member into its position.
+	 *
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int slot = slotOf(id);
+		int position = positions[slot];
+		if (position == FREE) {
+			return false;
+		}
+
+		int last = size - 1;
+		if (position != last) {
+			int lastId = members[last];
+			members[position] = lastId;
+			positions[slotOf(lastId)] = position;
+		}
+		size--;
+
+		deleteSlot(slot);
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		members = new int[16];
+		size = 0;
+		positions = newPositions(32);
+	}
+
+	/**
+	 * Returns a uniformly chosen member; the pool must not be empty.
+	 *
+	 * @methodtype get
+	 */
+	public int select(Random random) {
+		if (size == 0) {
+			throw new IllegalStateException("cannot select from an empty pool");
+		}
+		return members[random.nextInt(size)];
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] toIntArray() {
+		return Arrays.copyOf(members, size);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String toString() {
+		return "PhotoIdPool" + Arrays.toString(toIntArray());
+	}
+
+	/**
+	 * Returns the slot holding id or the free slot where it would go.
+	 *
+	 * @methodtype helper
+	 */
+	protected int slotOf(int id) {
+		int mask = positions.length - 1;
+		int slot = hash(id) & mask;
+		while (positions[slot] != FREE && members[positions[slot]] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Frees slot and moves later entries of the same probe sequence back, so lookups need no tombstones.
+	 *
+	 * @methodtype command
+	 */
+	protected void deleteSlot(int slot) {
+		int mask = positions.length - 1;
+		int free = slot;
+		positions[free] = FREE;
+		for (int next = (free + 1) & mask; positions[next] != FREE; next = (next + 1) & mask) {
+			int home = hash(members[positions[next]]) & mask;
+			boolean isReachable = (next > free) ? (home <= free || home > next) : (home <= free && home > next);
+			if (isReachable) {
+				positions[free] = positions[next];
+				positions[next] = FREE;
+				free = next;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void rehash(int capacity) {
+		positions = newPositions(capacity);
+		for (int i = 0; i < size; i++) {
+			positions[slotOf(members[i])] = i;
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static int[] newPositions(int capacity) {
+		int[] result = new int[capacity];
+		Arrays.fill(result, FREE);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int capacity = 32;
+		while (capacity < size * 2 + 2) {
+			capacity *= 2;
+		}
+		rehash(capacity);
+	}
+
+}
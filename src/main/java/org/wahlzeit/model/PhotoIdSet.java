@@ -0,0 +1,841 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A PhotoIdSet is a compressed set of photo ids in the style of a roaring bitmap. Ids are split into a 16 bit high
+ * part that selects a container and a 16 bit low part stored in it. Sparse containers are sorted arrays, dense ones
+ * are bitmaps, so membership tests are cheap and the serialized form in sessions and the Datastore stays small.
+ * A PhotoIdSet is not thread-safe.
+ */
+public class PhotoIdSet implements Iterable<PhotoId>, Serializable {
+
+	/**
+	 * Fixed to the value computed for the first version, which stored clients were serialized with
+	 */
+	private static final long serialVersionUID = -8308829801208010556L;
+
+	/**
+	 * First byte of the stored form returned by asBytes; raised whenever that form changes
+	 */
+	public static final byte FORMAT_VERSION = 1;
+
+	/**
+	 * Containers with more values than this are stored as bitmaps
+	 */
+	protected static final int MAX_ARRAY_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected static final int BITMAP_WORDS = 1024;
+
+	/**
+	 * Sorted high parts and the containers holding the low parts
+	 */
+	protected transient char[] keys = new char[0];
+	protected transient Container[] containers = new Container[0];
+	protected transient int noContainers = 0;
+
+	/**
+	 *
+	 */
+	public PhotoIdSet() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdSet(PhotoIdSet other) {
+		addAll(other);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId photoId) {
+		return (photoId != null) && contains(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		int index = indexOf(highBits(id));
+		return (index >= 0) && containers[index].contains(lowBits(id));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId photoId) {
+		assertIsValidPhotoId(photoId);
+		return add(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		assertIsValidId(id);
+
+		char key = highBits(id);
+		int index = indexOf(key);
+		if (index < 0) {
+			index = -index - 1;
+			insertContainer(index, key, new ArrayContainer());
+		}
+
+		Container container = containers[index];
+		int oldSize = container.size();
+		containers[index] = container.add(lowBits(id));
+		return containers[index].size() > oldSize;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId photoId) {
+		return (photoId != null) && remove(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int index = indexOf(highBits(id));
+		if (index < 0) {
+			return false;
+		}
+
+		Container container = containers[index];
+		int oldSize = container.size();
+		containers[index] = container.remove(lowBits(id));
+		boolean result = containers[index].size() < oldSize;
+		if (containers[index].size() == 0) {
+			removeContainer(index);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		int result = 0;
+		for (int i = 0; i < noContainers; i++) {
+			result += containers[i].size();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return noContainers == 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new char[0];
+		containers = new Container[0];
+		noContainers = 0;
+	}
+
+	/**
+	 * Adds all ids of other to this set (union).
+	 *
+	 * @methodtype command
+	 */
+	public void addAll(PhotoIdSet other) {
+		for (int i = 0; i < other.noContainers; i++) {
+			char key = other.keys[i];
+			int index = indexOf(key);
+			if (index < 0) {
+				insertContainer(-index - 1, key, other.containers[i].copy());
+			} else {
+				containers[index] = containers[index].or(other.containers[i]);
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the ids that are also in other (intersection).
+	 *
+	 * @methodtype command
+	 */
+	public void retainAll(PhotoIdSet other) {
+		for (int i = noContainers - 1; i >= 0; i--) {
+			int otherIndex = other.indexOf(keys[i]);
+			if (otherIndex < 0) {
+				removeContainer(i);
+			} else {
+				containers[i] = containers[i].and(other.containers[otherIndex]);
+				if (containers[i].size() == 0) {
+					removeContainer(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all ids that are in other (difference).
+	 *
+	 * @methodtype command
+	 */
+	public void removeAll(PhotoIdSet other) {
+		for (int i = noContainers - 1; i >= 0; i--) {
+			int otherIndex = other.indexOf(keys[i]);
+			if (otherIndex >= 0) {
+				containers[i] = containers[i].andNot(other.containers[otherIndex]);
+				if (containers[i].size() == 0) {
+					removeContainer(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public PhotoIdSet copy() {
+		return new PhotoIdSet(this);
+	}
+
+	/**
+	 * Returns the rank-th smallest id of the set.
+	 *
+	 * @methodtype get
+	 */
+	public int select(int rank) {
+		if (rank < 0) {
+			throw new IndexOutOfBoundsException("rank: " + rank);
+		}
+
+		int remaining = rank;
+		for (int i = 0; i < noContainers; i++) {
+			int size = containers[i].size();
+			if (remaining < size) {
+				return (keys[i] << 16) | containers[i].select(remaining);
+			}
+			remaining -= size;
+		}
+
+		throw new IndexOutOfBoundsException("rank: " + rank + ", size: " + size());
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] toIntArray() {
+		int[] result = new int[size()];
+		int i = 0;
+		for (IntIterator ids = intIterator(); ids.hasNext(); ) {
+			result[i++] = ids.next();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public IntIterator intIterator() {
+		return new IntIterator();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public Iterator<PhotoId> iterator() {
+		final IntIterator ids = intIterator();
+		return new Iterator<PhotoId>() {
+			public boolean hasNext() {
+				return ids.hasNext();
+			}
+
+			public PhotoId next() {
+				return PhotoId.getIdFromInt(ids.next());
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof PhotoIdSet)) {
+			return false;
+		}
+
+		PhotoIdSet other = (PhotoIdSet) o;
+		if (noContainers != other.noContainers) {
+			return false;
+		}
+		for (int i = 0; i < noContainers; i++) {
+			if (keys[i] != other.keys[i] || !Arrays.equals(containers[i].toArray(), other.containers[i].toArray())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int hashCode() {
+		int result = 1;
+		for (IntIterator ids = intIterator(); ids.hasNext(); ) {
+			result = 31 * result + ids.next();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String toString() {
+		return "PhotoIdSet" + Arrays.toString(toIntArray());
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int indexOf(char key) {
+		return Arrays.binarySearch(keys, 0, noContainers, key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void insertContainer(int index, char key, Container container) {
+		if (noContainers == keys.length) {
+			int newLength = Math.max(4, noContainers * 2);
+			keys = Arrays.copyOf(keys, newLength);
+			containers = Arrays.copyOf(containers, newLength);
+		}
+
+		System.arraycopy(keys, index, keys, index + 1, noContainers - index);
+		System.arraycopy(containers, index, containers, index + 1, noContainers - index);
+		keys[index] = key;
+		containers[index] = container;
+		noContainers++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeContainer(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noContainers - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, noContainers - index - 1);
+		noContainers--;
+		containers[noContainers] = null;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char highBits(int id) {
+		return (char) (id >>> 16);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static char lowBits(int id) {
+		return (char) id;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidPhotoId(PhotoId photoId) {
+		if (photoId == null) {
+			throw new IllegalArgumentException("PhotoId photoId may not be null");
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidId(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("invalid photo id: " + id);
+		}
+	}
+
+	/**
+	 * Returns the stored form: the format version followed by the compressed containers.
+	 *
+	 * @methodtype conversion
+	 */
+	public byte[] asBytes() {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(result)) {
+			out.writeByte(FORMAT_VERSION);
+			writeContainersOn(out);
+		} catch (IOException ex) {
+			throw new IllegalStateException("could not write photo ids", ex);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Reads a set from the form returned by asBytes.
+	 *
+	 * @methodtype factory
+	 */
+	public static PhotoIdSet fromBytes(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		byte version = in.readByte();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("unknown PhotoIdSet format version: " + version);
+		}
+
+		PhotoIdSet result = new PhotoIdSet();
+		result.readContainersFrom(in);
+		return result;
+	}
+
+	/**
+	 * Writes the containers in their compressed form rather than the default object graph.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		writeContainersOn(out);
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		readContainersFrom(in);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeContainersOn(DataOutput out) throws IOException {
+		out.writeInt(noContainers);
+		for (int i = 0; i < noContainers; i++) {
+			out.writeChar(keys[i]);
+			containers[i].writeOn(out);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void readContainersFrom(DataInput in) throws IOException {
+		noContainers = in.readInt();
+		keys = new char[noContainers];
+		containers = new Container[noContainers];
+		for (int i = 0; i < noContainers; i++) {
+			keys[i] = in.readChar();
+			containers[i] = Container.readFrom(in);
+		}
+	}
+
+	/**
+	 * Iterates over the ids in ascending order without boxing them.
+	 */
+	public class IntIterator {
+
+		protected int containerIndex = -1;
+		protected char[] values = new char[0];
+		protected int valueIndex = 0;
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		public boolean hasNext() {
+			while (valueIndex >= values.length && containerIndex + 1 < noContainers) {
+				containerIndex++;
+				values = containers[containerIndex].toArray();
+				valueIndex = 0;
+			}
+			return valueIndex < values.length;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public int next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return (keys[containerIndex] << 16) | values[valueIndex++];
+		}
+	}
+
+	/**
+	 * A Container holds the low 16 bits of the ids sharing the same high 16 bits. Mutating operations return the
+	 * container to use from now on, which may be of a different kind.
+	 */
+	protected abstract static class Container {
+
+		protected static final byte ARRAY = 0;
+		protected static final byte BITMAP = 1;
+
+		abstract boolean contains(char value);
+
+		abstract Container add(char value);
+
+		abstract Container remove(char value);
+
+		abstract int size();
+
+		abstract char select(int rank);
+
+		abstract char[] toArray();
+
+		abstract Container copy();
+
+		abstract long[] toBitmap();
+
+		abstract void writeOn(DataOutput out) throws IOException;
+
+		/**
+		 * @methodtype command
+		 */
+		Container or(Container other) {
+			if (this instanceof ArrayContainer && other instanceof ArrayContainer) {
+				return ArrayContainer.union((ArrayContainer) this, (ArrayContainer) other);
+			}
+
+			long[] result = toBitmap();
+			long[] words = other.toBitmap();
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				result[i] |= words[i];
+			}
+			return fromBitmap(result);
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		Container and(Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, true);
+			}
+			if (other instanceof ArrayContainer) {
+				return ((ArrayContainer) other).filter(this, true);
+			}
+
+			long[] result = toBitmap();
+			long[] words = other.toBitmap();
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				result[i] &= words[i];
+			}
+			return fromBitmap(result);
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		Container andNot(Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, false);
+			}
+
+			long[] result = toBitmap();
+			long[] words = other.toBitmap();
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				result[i] &= ~words[i];
+			}
+			return fromBitmap(result);
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		static Container fromBitmap(long[] words) {
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+
+			BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+			return (cardinality > MAX_ARRAY_SIZE) ? bitmap : bitmap.toArrayContainer();
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		static Container readFrom(DataInput in) throws IOException {
+			byte type = in.readByte();
+			if (type == ARRAY) {
+				int size = in.readChar() + 1;
+				char[] values = new char[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = in.readChar();
+				}
+				return new ArrayContainer(values, size);
+			} else if (type == BITMAP) {
+				long[] words = new long[BITMAP_WORDS];
+				for (int i = 0; i < BITMAP_WORDS; i++) {
+					words[i] = in.readLong();
+				}
+				return fromBitmap(words);
+			}
+
+			throw new IOException("unknown PhotoIdSet container type: " + type);
+		}
+	}
+
+	/**
+	 * A sparse container: the values in ascending order.
+	 */
+	protected static class ArrayContainer extends Container {
+
+		protected char[] values;
+		protected int size;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		Container add(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				return this;
+			}
+
+			if (size >= MAX_ARRAY_SIZE) {
+				return new BitmapContainer(toBitmap(), size).add(value);
+			}
+
+			index = -index - 1;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, Math.max(4, size * 2)));
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+			return this;
+		}
+
+		Container remove(char value) {
+			int index = Arrays.binarySearch(values, 0, size, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, size - index - 1);
+				size--;
+			}
+			return this;
+		}
+
+		int size() {
+			return size;
+		}
+
+		char select(int rank) {
+			return values[rank];
+		}
+
+		char[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 1)), size);
+		}
+
+		long[] toBitmap() {
+			long[] result = new long[BITMAP_WORDS];
+			for (int i = 0; i < size; i++) {
+				result[values[i] >>> 6] |= 1L << values[i];
+			}
+			return result;
+		}
+
+		/**
+		 * Keeps the values that are (keep = true) or are not (keep = false) in other.
+		 */
+		Container filter(Container other, boolean keep) {
+			char[] result = new char[size];
+			int resultSize = 0;
+			for (int i = 0; i < size; i++) {
+				if (other.contains(values[i]) == keep) {
+					result[resultSize++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, resultSize);
+		}
+
+		static Container union(ArrayContainer a, ArrayContainer b) {
+			char[] result = new char[a.size + b.size];
+			int i = 0, j = 0, k = 0;
+			while (i < a.size && j < b.size) {
+				char x = a.values[i];
+				char y = b.values[j];
+				if (x < y) {
+					result[k++] = x;
+					i++;
+				} else if (y < x) {
+					result[k++] = y;
+					j++;
+				} else {
+					result[k++] = x;
+					i++;
+					j++;
+				}
+			}
+			while (i < a.size) {
+				result[k++] = a.values[i++];
+			}
+			while (j < b.size) {
+				result[k++] = b.values[j++];
+			}
+
+			ArrayContainer merged = new ArrayContainer(result, k);
+			return (k > MAX_ARRAY_SIZE) ? new BitmapContainer(merged.toBitmap(), k) : merged;
+		}
+
+		void writeOn(DataOutput out) throws IOException {
+			out.writeByte(ARRAY);
+			out.writeChar(size - 1);
+			for (int i = 0; i < size; i++) {
+				out.writeChar(values[i]);
+			}
+		}
+	}
+
+	/**
+	 * A dense container: one bit for each of the 65536 possible values.
+	 */
+	protected static class BitmapContainer extends Container {
+
+		protected long[] words;
+		protected int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		Container add(char value) {
+			if (!contains(value)) {
+				words[value >>> 6] |= 1L << value;
+				cardinality++;
+			}
+			return this;
+		}
+
+		Container remove(char value) {
+			if (contains(value)) {
+				words[value >>> 6] &= ~(1L << value);
+				cardinality--;
+				if (cardinality <= MAX_ARRAY_SIZE) {
+					return toArrayContainer();
+				}
+			}
+			return this;
+		}
+
+		int size() {
+			return cardinality;
+		}
+
+		char select(int rank) {
+			int remaining = rank;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				int bits = Long.bitCount(words[i]);
+				if (remaining < bits) {
+					long word = words[i];
+					for (int j = 0; j < remaining; j++) {
+						word &= word - 1;
+					}
+					return (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+				}
+				remaining -= bits;
+			}
+			throw new IndexOutOfBoundsException("rank: " + rank);
+		}
+
+		char[] toArray() {
+			char[] result = new char[cardinality];
+			int k = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					result[k++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return result;
+		}
+
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		long[] toBitmap() {
+			return words.clone();
+		}
+
+		ArrayContainer toArrayContainer() {
+			return new ArrayContainer(toArray(), cardinality);
+		}
+
+		void writeOn(DataOutput out) throws IOException {
+			out.writeByte(BITMAP);
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				out.writeLong(words[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.Blob;
+import com.googlecode.objectify.impl.Path;
+import com.googlecode.objectify.impl.translate.CreateContext;
+import com.googlecode.objectify.impl.translate.LoadContext;
+import com.googlecode.objectify.impl.translate.SaveContext;
+import com.googlecode.objectify.impl.translate.SkipException;
+import com.googlecode.objectify.impl.translate.TypeKey;
+import com.googlecode.objectify.impl.translate.ValueTranslator;
+import com.googlecode.objectify.impl.translate.ValueTranslatorFactory;
+
+import java.io.IOException;
+
+/**
+ * Stores a PhotoIdSet in the Datastore as a Blob of its versioned form rather than as a Java-serialized object, so
+ * the stored sets do not depend on the class staying serialization compatible.
+ */
+public class PhotoIdSetTranslatorFactory extends ValueTranslatorFactory<PhotoIdSet, Blob> {
+
+	/**
+	 *
+	 */
+	public PhotoIdSetTranslatorFactory() {
+		super(PhotoIdSet.class);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	@Override
+	protected ValueTranslator<PhotoIdSet, Blob> createValueTranslator(TypeKey<PhotoIdSet> typeKey, CreateContext ctx,
+																	   Path path) {
+		return new ValueTranslator<PhotoIdSet, Blob>(Blob.class) {
+			@Override
+			protected PhotoIdSet loadValue(Blob value, LoadContext ctx, Path path) throws SkipException {
+				try {
+					return PhotoIdSet.fromBytes(value.getBytes());
+				} catch (IOException ex) {
+					throw new IllegalStateException("could not read stored photo ids at " + path, ex);
+				}
+			}
+
+			@Override
+			protected Blob saveValue(PhotoIdSet value, boolean index, SaveContext ctx, Path path) throws SkipException {
+				return new Blob(value.asBytes());
+			}
+		};
+	}
+
+}
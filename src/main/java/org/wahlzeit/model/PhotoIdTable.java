@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A PhotoIdTable interns PhotoIds, so there is only one PhotoId object per id. It is a three-level trie of fixed-size
+ * AtomicReferenceArrays: a root directory, directories and chunks of ids. Missing directories and chunks are
+ * installed with compare-and-set and never replaced, so the table grows without copying. Reads are wait-free, and
+ * inserts are lock-free.
+ */
+public class PhotoIdTable {
+
+	/**
+	 * Chunks hold 1024 ids, directories 1024 chunks; the root covers the remaining bits of non-negative ints
+	 */
+	protected static final int CHUNK_BITS = 10;
+	protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	protected static final int DIRECTORY_BITS = 10;
+	protected static final int DIRECTORY_SIZE = 1 << DIRECTORY_BITS;
+	protected static final int DIRECTORY_MASK = DIRECTORY_SIZE - 1;
+	protected static final int ROOT_SIZE = 1 << (Integer.SIZE - 1 - CHUNK_BITS - DIRECTORY_BITS);
+
+	/**
+	 *
+	 */
+	protected final AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>> root =
+			new AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>>(ROOT_SIZE);
+
+	/**
+	 * Returns the interned PhotoId or null if there is none yet.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoId get(int id) {
+		assertIsValidId(id);
+
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> directory = root.get(id >>> (CHUNK_BITS + DIRECTORY_BITS));
+		if (directory == null) {
+			return null;
+		}
+		AtomicReferenceArray<PhotoId> chunk = directory.get((id >>> CHUNK_BITS) & DIRECTORY_MASK);
+		if (chunk == null) {
+			return null;
+		}
+		return chunk.get(id & CHUNK_MASK);
+	}
+
+	/**
+	 * Returns the interned PhotoId, creating it first if necessary; concurrent callers get the same object.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoId getOrCreate(int id) {
+		PhotoId result = get(id);
+		if (result != null) {
+			return result;
+		}
+		return putIfAbsent(new PhotoId(id));
+	}
+
+	/**
+	 * Interns the given PhotoId unless there already is one for its id; returns the interned one.
+	 *
+	 * @methodtype command
+	 */
+	public PhotoId putIfAbsent(PhotoId photoId) {
+		int id = photoId.asInt();
+		assertIsValidId(id);
+
+		AtomicReferenceArray<PhotoId> chunk = getOrCreateChunk(id);
+		int index = id & CHUNK_MASK;
+		if (chunk.compareAndSet(index, null, photoId)) {
+			return photoId;
+		}
+		return chunk.get(index);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected AtomicReferenceArray<PhotoId> getOrCreateChunk(int id) {
+		int rootIndex = id >>> (CHUNK_BITS + DIRECTORY_BITS);
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> directory = root.get(rootIndex);
+		if (directory == null) {
+			root.compareAndSet(rootIndex, null, new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(DIRECTORY_SIZE));
+			directory = root.get(rootIndex);
+		}
+
+		int directoryIndex = (id >>> CHUNK_BITS) & DIRECTORY_MASK;
+		AtomicReferenceArray<PhotoId> chunk = directory.get(directoryIndex);
+		if (chunk == null) {
+			directory.compareAndSet(directoryIndex, null, new AtomicReferenceArray<PhotoId>(CHUNK_SIZE));
+			chunk = directory.get(directoryIndex);
+		}
+		return chunk;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidId(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("id may not be negative: " + id);
+		}
+	}
+
+}
@@ -20,24 +20,42 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
+import com.google.appengine.api.utils.SystemProperty;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.cache.EvictionListener;
+import org.wahlzeit.services.cache.ObjectCache;
+import org.wahlzeit.services.cache.TinyLfuEvictionPolicy;
+import org.wahlzeit.services.cache.Weigher;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,15 +72,70 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * Bounds of the photo cache; the weight of a photo is the number of bytes of its images
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	public static final int MAX_CACHED_PHOTOS = 10000;
+	public static final long MAX_CACHED_IMAGE_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * In-memory cache for photos; evicted photos are reloaded on demand
+	 */
+	protected ObjectCache<PhotoId, Photo> photoCache = createPhotoCache();
+
+	/**
+	 * Ids of all known photos, whether currently cached or not
+	 */
+	protected Set<PhotoId> photoIds = Collections.newSetFromMap(new ConcurrentHashMap<PhotoId, Boolean>());
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * In-memory index of the tags of all known photos
+	 */
+	protected PhotoTagIndex photoTagIndex = new PhotoTagIndex();
+
+	/**
+	 * Photo id to the tags last written to the datastore, seeded with the tags of the photos as loaded; photos without
+	 * entry have to be compared with the datastore
+	 */
+	protected ConcurrentMap<Integer, Set<String>> persistedTags = new ConcurrentHashMap<Integer, Set<String>>();
+
+	/**
+	 * Ids of all known visible photos; guarded by itself
+	 */
+	protected PhotoIdSet visiblePhotoIds = new PhotoIdSet();
+
+	/**
+	 * Photos whose visibility or tags have changed; lets photo filters update their candidates incrementally
+	 */
+	protected PhotoChangeLog photoChangeLog = new PhotoChangeLog();
+
+	/**
+	 * Loads of photos that are not cached and have been requested, by photo id
+	 */
+	protected ConcurrentMap<PhotoId, FutureTask<Photo>> pendingLoads =
+			new ConcurrentHashMap<PhotoId, FutureTask<Photo>>();
+
+	/**
+	 * Scalings of images that have been requested but not created yet, by photo id and size
+	 */
+	protected ConcurrentMap<String, FutureTask<Image>> pendingScalings =
+			new ConcurrentHashMap<String, FutureTask<Image>>();
+
+	/**
+	 * Upper bound on draws of photos that turned out to be no longer visible
+	 */
+	protected static final int MAX_VISIBLE_PHOTO_DRAWS = 8;
+
+	/**
+	 * Number of photos read from the datastore at once when starting up, and bound on the threads loading their images
+	 */
+	public static final int LOAD_PAGE_SIZE = 500;
+	public static final int MAX_LOADING_THREADS = 8;
+
 	/**
 	 *
 	 */
@@ -70,6 +143,39 @@ public class PhotoManager extends ObjectManager {
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
 	}
 
+	/**
+	 * @methodtype factory
+	 */
+	protected ObjectCache<PhotoId, Photo> createPhotoCache() {
+		ObjectCache<PhotoId, Photo> result = new ObjectCache<PhotoId, Photo>(MAX_CACHED_PHOTOS,
+				MAX_CACHED_IMAGE_BYTES, new TinyLfuEvictionPolicy<PhotoId>(MAX_CACHED_PHOTOS), new Weigher<Photo>() {
+			@Override
+			public long weigh(Photo photo) {
+				return photo.getImagesSize();
+			}
+		});
+
+		result.setEvictionListener(new EvictionListener<PhotoId, Photo>() {
+			@Override
+			public void onEviction(PhotoId id, final Photo photo) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Evicted Photo with ID", id.asString()).publish();
+				// written right away, as a write left to the WriteBehindQueue could lose against a reload
+				if (photo.isDirty()) {
+					ObjectifyService.run(new Work<Void>() {
+						@Override
+						public Void run() {
+							writeObject(photo);
+							return null;
+						}
+					});
+				}
+			}
+		});
+
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -111,25 +217,96 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
+	 * Returns the photo if it is in memory, but does not load it.
 	 *
+	 * @methodtype get
+	 */
+	public Photo getCachedPhoto(PhotoId id) {
+		if (id == null) {
+			return null;
+		}
+		return doGetPhotoFromId(id);
+	}
+
+	/**
+	 * Photos that are not cached are loaded from the datastore, as long as they are known at all. Concurrent requests
+	 * for the same photo wait for one load instead of each loading it.
 	 */
-	public Photo getPhotoFromId(PhotoId id) {
+	public Photo getPhotoFromId(final PhotoId id) {
 		if (id == null) {
 			return null;
 		}
 
 		Photo result = doGetPhotoFromId(id);
+		if (result != null || id.isNullId() || !doHasPhoto(id)) {
+			return result;
+		}
 
-		if (result == null) {
-			result = PhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
+		FutureTask<Photo> load = new FutureTask<Photo>(new Callable<Photo>() {
+			@Override
+			public Photo call() {
+				return loadUncachedPhoto(id);
+			}
+		});
+
+		FutureTask<Photo> pendingLoad = pendingLoads.putIfAbsent(id, load);
+		if (pendingLoad == null) {
+			pendingLoad = load;
+			try {
+				load.run();
+			} finally {
+				pendingLoads.remove(id, load);
+			}
+		}
+
+		try {
+			return pendingLoad.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
 			}
+			throw new IllegalStateException("could not load photo " + id.asString(), cause);
 		}
+	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Loads a photo that was not cached and adds it to the cache, unless another load got there first; then the
+	 * cached instance is returned, so there is never more than one.
+	 */
+	protected Photo loadUncachedPhoto(PhotoId id) {
+		// another request may have finished loading the photo just before
+		Photo result = doGetPhotoFromId(id);
+		if (result != null) {
+			return result;
+		}
+
+		result = readPhoto(id);
+		if (result != null) {
+			persistedTags.putIfAbsent(id.asInt(), collectTags(result));
+			loadScaledImages(result);
+			result.resetWriteCount();
+			Photo cachedPhoto = doAddPhotoIfAbsent(result);
+			if (cachedPhoto != null) {
+				return cachedPhoto;
+			}
+		}
 		return result;
 	}
 
+	/**
+	 * @methodtype get
+	 * @methodproperties primitive
+	 */
+	protected Photo readPhoto(PhotoId id) {
+		return PhotoFactory.getInstance().loadPhoto(id);
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
@@ -152,6 +329,32 @@ public class PhotoManager extends ObjectManager {
 			throw new IllegalArgumentException("Photo myPhoto may not be null");
 		}
 		photoCache.put(myPhoto.getId(), myPhoto);
+		doRegisterPhoto(myPhoto);
+	}
+
+	/**
+	 * Adds the photo unless the cache already holds one with its id; returns that one or null.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doAddPhotoIfAbsent(Photo myPhoto) {
+		Photo result = photoCache.putIfAbsent(myPhoto.getId(), myPhoto);
+		if (result == null) {
+			doRegisterPhoto(myPhoto);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRegisterPhoto(Photo myPhoto) {
+		photoIds.add(myPhoto.getId());
+		if (indexVisibility(myPhoto)) {
+			photoChangeLog.addChange(myPhoto.getId());
+		}
 	}
 
 	/**
@@ -175,31 +378,188 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Only as many photos as fit into the cache are
+	 * loaded with their images, the others are just registered and loaded on first access. Photos are read page by
+	 * page, and the images of one page are loaded in parallel while the next page is read. Photos stored in an older
+	 * schema are saved again on the way, as they could not be loaded on first access otherwise.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
-			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+		ExecutorService executor = Executors.newFixedThreadPool(MAX_LOADING_THREADS, getLoadingThreadFactory());
+		final List<Future<?>> imageLoads = new ArrayList<Future<?>>();
+		try {
+			ObjectifyService.run(new Work<Integer>() {
+				@Override
+				public Integer run() {
+					return readObjects(Photo.class, LOAD_PAGE_SIZE, new Consumer<List<Photo>>() {
+						@Override
+						public void accept(List<Photo> existingPhotos) {
+							List<Photo> legacyPhotos = new ArrayList<Photo>();
+							for (Photo photo : existingPhotos) {
+								if (!photo.hasCurrentSchema()) {
+									legacyPhotos.add(photo);
+								}
+								Future<?> imageLoad = doLoadPhoto(photo, imageLoads.size(), executor);
+								if (imageLoad != null) {
+									imageLoads.add(imageLoad);
+								}
+							}
+							migratePhotos(legacyPhotos);
+						}
+					});
+				}
+			});
+
+			awaitImageLoads(imageLoads);
+		} finally {
+			executor.shutdown();
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos loaded.").
+				addParameter("photo cache", photoCache.asString()).publish();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Saves photos read in an older schema, so that the datastore writes the indexes of the current one. Only the
+	 * photos themselves are saved; their images, tags and owners did not change.
+	 */
+	protected void migratePhotos(List<Photo> legacyPhotos) {
+		if (legacyPhotos.isEmpty()) {
+			return;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Migrate photos to schema version", Photo.SCHEMA_VERSION).
+				addParameter("number of photos", legacyPhotos.size()).publish();
+		for (int from = 0; from < legacyPhotos.size(); from += MAX_BATCH_SIZE) {
+			List<Photo> batch = legacyPhotos.subList(from, Math.min(from + MAX_BATCH_SIZE, legacyPhotos.size()));
+			OfyService.ofy().save().entities(batch).now();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Restores the photos of a snapshot of the model instead of loading all of them: every photo is indexed with the
+	 * given tags, the given photos are loaded into the cache, and then only photos changed since the given time are
+	 * read from the datastore and replace their snapshot state.
+	 */
+	public void restorePhotos(Map<Integer, Set<String>> conditionsById, PhotoIdSet visibleIds,
+							  Collection<Photo> cachedPhotos, final long changedSince) {
+		for (Map.Entry<Integer, Set<String>> entry : conditionsById.entrySet()) {
+			PhotoId id = PhotoId.getIdFromInt(entry.getKey());
+			photoTagIndex.setConditions(id, entry.getValue());
+			persistedTags.put(entry.getKey(), entry.getValue());
+			photoIds.add(id);
+		}
+		synchronized (visiblePhotoIds) {
+			visiblePhotoIds.addAll(visibleIds);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(MAX_LOADING_THREADS, getLoadingThreadFactory());
+		try {
+			List<Future<?>> imageLoads = new ArrayList<Future<?>>();
+			for (Photo photo : cachedPhotos) {
+				photoIds.remove(photo.getId());
+				Future<?> imageLoad = doLoadPhoto(photo, imageLoads.size(), executor);
+				if (imageLoad != null) {
+					imageLoads.add(imageLoad);
+				}
 			}
-		});
+			awaitImageLoads(imageLoads);
+
+			// changed photos have to wait for the snapshot state they replace
+			Collection<Photo> changedPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+				@Override
+				public Collection<Photo> run() {
+					Collection<Photo> result = new ArrayList<Photo>();
+					readObjects(result, Photo.class, Photo.MODIFICATION_TIME + " >", changedSince);
+					return result;
+				}
+			});
+
+			imageLoads.clear();
+			for (Photo photo : changedPhotos) {
+				photoCache.remove(photo.getId());
+				photoIds.remove(photo.getId());
+				Future<?> imageLoad = doLoadPhoto(photo, photoCache.size() + imageLoads.size(), executor);
+				if (imageLoad != null) {
+					imageLoads.add(imageLoad);
+				}
+			}
+			awaitImageLoads(imageLoads);
+		} finally {
+			executor.shutdown();
+		}
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos restored.").
+				addParameter("photo cache", photoCache.asString()).publish();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void awaitImageLoads(List<Future<?>> imageLoads) {
+		for (Future<?> imageLoad : imageLoads) {
+			try {
+				imageLoad.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Could not load images of photo", ex.getCause()).publish();
 			}
 		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Indexes a photo read at startup and, while the cache has room, submits loading its images. Returns the pending
+	 * image load or null; the photo is only added to the cache once its images are there, as they make up its weight.
+	 */
+	protected Future<?> doLoadPhoto(final Photo photo, int noCachedPhotos, ExecutorService executor) {
+		if (doHasPhoto(photo.getId())) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Already loaded Photo", photo.getIdAsString()).publish();
+			return null;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Load Photo with ID", photo.getIdAsString()).publish();
+		persistedTags.put(photo.getId().asInt(), indexTags(photo));
+		photoIds.add(photo.getId());
+		if (noCachedPhotos >= photoCache.getMaxEntries()) {
+			return null;
+		}
+
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				ObjectifyService.run(new VoidWork() {
+					@Override
+					public void vrun() {
+						loadScaledImages(photo);
+						photo.resetWriteCount();
+						doAddPhoto(photo);
+					}
+				});
+			}
+		});
+	}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+	/**
+	 * On App Engine, threads need to be created by the ThreadManager to access its services.
+	 *
+	 * @methodtype get
+	 */
+	protected ThreadFactory getLoadingThreadFactory() {
+		if (SystemProperty.environment.value() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
 	}
 
 	/**
@@ -207,7 +567,7 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperty primitive
 	 */
 	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+		return photoIds.contains(id);
 	}
 
 	/**
@@ -226,27 +586,90 @@ public class PhotoManager extends ObjectManager {
 		ImageStorage imageStorage = ImageStorage.getInstance();
 
 		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addAction("loading image").
 					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
+					addParameter("photo ID", photoIdAsString).publish();
+			try {
+				Serializable rawImage = imageStorage.readImageIfPresent(photoIdAsString, photoSize.asInt());
+				if (rawImage instanceof Image) {
+					photo.setImage(photoSize, (Image) rawImage);
+				} else {
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
+							addParameter("Size does not exist", photoSize.asString()).publish();
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+			} catch (IOException e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("size", photoSize.asString()).
+						addParameter("photo ID", photoIdAsString).
+						addException("Could not load image", e).publish();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image of the photo in the given size, creating and storing it first if the photo lacks it. Concurrent
+	 * requests for the same missing image wait for one scaling instead of each scaling it. Returns null if the photo
+	 * is too small for the size or no image can be created.
+	 */
+	public Image getScaledImage(final Photo photo, final PhotoSize size) {
+		Image result = photo.getImage(size);
+		if (result != null || size.isWiderAndHigher(photo.getWidth(), photo.getHeight())) {
+			return result;
+		}
+
+		String key = photo.getIdAsString() + "/" + size.asInt();
+		FutureTask<Image> scaling = new FutureTask<Image>(new Callable<Image>() {
+			@Override
+			public Image call() throws Exception {
+				return doCreateScaledImage(photo, size);
+			}
+		});
+
+		FutureTask<Image> pendingScaling = pendingScalings.putIfAbsent(key, scaling);
+		if (pendingScaling == null) {
+			pendingScaling = scaling;
+			try {
+				scaling.run();
+			} finally {
+				pendingScalings.remove(key, scaling);
+			}
+		}
+
+		try {
+			return pendingScaling.get();
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("size", size.asString()).
+					addParameter("photo ID", photo.getIdAsString()).
+					addException("Could not create scaled image", ex).publish();
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected Image doCreateScaledImage(Photo photo, PhotoSize size) throws Exception {
+		// another request may have finished the same scaling just before
+		Image result = photo.getImage(size);
+		if (result != null) {
+			return result;
+		}
+
+		result = PhotoUtil.createScaledImage(photo, size);
+		if (result != null) {
+			ImageStorage.getInstance().writeImage(result, photo.getIdAsString(), size.asInt());
+			photo.setImage(size, result);
+			if (photoCache.containsKey(photo.getId())) {
+				// put it again so the cache accounts for the larger weight
+				photoCache.put(photo.getId(), photo);
 			}
 		}
+		return result;
 	}
 
 	/**
@@ -258,6 +681,15 @@ public class PhotoManager extends ObjectManager {
 
 	@Override
 	protected void updateDependents(Persistent obj) {
+		updateDependents(obj, Photo.ALL_FIELD_GROUPS);
+	}
+
+	/**
+	 * Only updates the dependents that the changed field groups affect; a praise, e.g., neither touches the images, nor
+	 * the tags, nor the owner.
+	 */
+	@Override
+	protected void updateDependents(Persistent obj, int dirtyFieldGroups) {
 		if(obj == null){
 			final String msg = "Persistent obj may not be null";
 			log.log(Level.SEVERE, msg);
@@ -265,11 +697,22 @@ public class PhotoManager extends ObjectManager {
 		}
 		if (obj instanceof Photo) {
 			Photo photo = (Photo) obj;
-			saveScaledImages(photo);
-			updateTags(photo);
-			UserManager userManager = UserManager.getInstance();
-			Client owner = userManager.getClientById(photo.getOwnerId());
-			userManager.saveClient(owner);
+			if ((dirtyFieldGroups & Photo.IMAGE_FIELDS) != 0) {
+				saveScaledImages(photo);
+			}
+
+			// the owner name is part of the tags
+			if ((dirtyFieldGroups & (Photo.TAG_FIELDS | Photo.OWNER_FIELDS)) != 0) {
+				updateTags(photo);
+			} else if ((dirtyFieldGroups & Photo.STATUS_FIELDS) != 0 && indexVisibility(photo)) {
+				photoChangeLog.addChange(photo.getId());
+			}
+
+			if ((dirtyFieldGroups & Photo.OWNER_FIELDS) != 0) {
+				UserManager userManager = UserManager.getInstance();
+				Client owner = userManager.getClientById(photo.getOwnerId());
+				userManager.saveClient(owner);
+			}
 		}
 	}
 
@@ -320,21 +763,22 @@ public class PhotoManager extends ObjectManager {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
 				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addException("Problem when storing image", e).publish();
 					moreSizesExist = false;
 				}
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+				// sizes may be missing as long as nobody requested them
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No image for size", photoSize.asString()).publish();
 			}
 		} while (it < PhotoSize.values().length && moreSizesExist);
 	}
 
 	/**
 	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * the photo to the datastore. Only the difference to the last written tags is written; if the tags did not change,
+	 * e.g. because only the photo was praised, the datastore is not accessed at all.
 	 */
 	protected void updateTags(Photo photo) {
 		if(photo == null){
@@ -342,19 +786,118 @@ public class PhotoManager extends ObjectManager {
 			log.log(Level.SEVERE, msg);
 			throw new IllegalArgumentException(msg);
 		}
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+		Set<String> tags = indexTags(photo);
+		Integer id = photo.getId().asInt();
+		String photoIdAsString = photo.getId().asString();
+
+		Set<String> oldTags = persistedTags.get(id);
+		if (tags.equals(oldTags)) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Tags unchanged of Photo", photoIdAsString).publish();
+			return;
+		}
+
+		Set<String> addedTags = new HashSet<String>(tags);
+		List<Tag> removedTags = new ArrayList<Tag>();
+		if (oldTags == null || !tags.containsAll(oldTags)) {
+			// removing needs the stored tags, and unknown tags need to be compared with the stored ones
+			List<Tag> existingTags = new ArrayList<Tag>();
+			readObjects(existingTags, Tag.class, Tag.PHOTO_ID, photoIdAsString);
+			Set<String> existingTexts = new HashSet<String>();
+			for (Tag tag : existingTags) {
+				if (!tags.contains(tag.getText()) || !existingTexts.add(tag.getText())) {
+					removedTags.add(tag);
+				}
+			}
+			addedTags.removeAll(existingTexts);
+		} else {
+			addedTags.removeAll(oldTags);
+		}
+
+		List<Tag> newTags = new ArrayList<Tag>(addedTags.size());
+		for (String text : addedTags) {
+			Tag tag = new Tag(text, photoIdAsString);
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Writing Tag", tag.asString()).publish();
+			newTags.add(tag);
+		}
+
+		if (!newTags.isEmpty() || !removedTags.isEmpty()) {
+			writeAndDeleteObjects(newTags, removedTags);
+		}
+		persistedTags.put(id, tags);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the tags of the photo as they are written to the datastore.
+	 */
+	protected Set<String> collectTags(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		photoTagCollector.collect(result, photo);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Brings the in-memory tag index up to date with the current tags of the photo and returns them.
+	 */
+	protected Set<String> indexTags(Photo photo) {
+		Set<String> result = collectTags(photo);
+		photoTagIndex.setConditions(photo.getId(), result);
+		indexVisibility(photo);
+		photoChangeLog.addChange(photo.getId());
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Brings the set of visible photos up to date with the status of the photo and returns whether it changed.
+	 */
+	protected boolean indexVisibility(Photo photo) {
+		synchronized (visiblePhotoIds) {
+			if (photo.isVisible()) {
+				return visiblePhotoIds.add(photo.getId());
+			} else {
+				return visiblePhotoIds.remove(photo.getId());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoIdSet getVisiblePhotoIds() {
+		synchronized (visiblePhotoIds) {
+			return visiblePhotoIds.copy();
+		}
+	}
 
-		// add all current tags to the datastore
-		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isVisiblePhotoId(int id) {
+		synchronized (visiblePhotoIds) {
+			return visiblePhotoIds.contains(id);
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public PhotoChangeLog getPhotoChangeLog() {
+		return photoChangeLog;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoTagIndex getPhotoTagIndex() {
+		return photoTagIndex;
+	}
+
 	/**
 	 *
 	 */
@@ -365,10 +908,17 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype get
 	 */
-	public Map<PhotoId, Photo> getPhotoCache() {
+	public ObjectCache<PhotoId, Photo> getPhotoCache() {
 		return photoCache;
 	}
 
+	/**
+	 * @methodtype get Returns the ids of all known photos, including the ones that are currently not cached
+	 */
+	public Set<PhotoId> getPhotoIds() {
+		return Collections.unmodifiableSet(photoIds);
+	}
+
 	/**
 	 *
 	 * @return
@@ -399,7 +949,21 @@ public class PhotoManager extends ObjectManager {
 			throw new IllegalArgumentException(msg);
 		}
 		filter.generateDisplayablePhotoIds();
-		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
+
+		// the filter may still hold photos hidden since its last update, so drop these and draw again
+		for (int i = 0; i < MAX_VISIBLE_PHOTO_DRAWS; i++) {
+			PhotoId id = filter.getRandomDisplayablePhotoId();
+			if (id.isNullId()) {
+				return null;
+			}
+
+			Photo result = getPhotoFromId(id);
+			if (result != null && result.isVisible()) {
+				return result;
+			}
+			filter.removeDisplayablePhotoId(id);
+		}
+		return null;
 	}
 
 	/**
@@ -436,8 +1000,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
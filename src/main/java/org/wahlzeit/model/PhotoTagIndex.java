@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A PhotoTagIndex maps the "un:"/"tg:" conditions collected by a PhotoTagCollector to the ids of all photos
+ * carrying them. It is kept up to date by the PhotoManager, so filtering photos needs no Datastore queries.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 * Condition to ids of photos having it
+	 */
+	protected Map<String, PhotoIdSet> photoIdsByCondition = new HashMap<String, PhotoIdSet>();
+
+	/**
+	 * Photo id to its indexed conditions; needed to remove conditions that have been dropped from a photo
+	 */
+	protected Map<Integer, Set<String>> conditionsByPhotoId = new HashMap<Integer, Set<String>>();
+
+	/**
+	 *
+	 */
+	protected ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Replaces the indexed conditions of the photo with the given ones.
+	 *
+	 * @methodtype command
+	 */
+	public void setConditions(PhotoId photoId, Set<String> conditions) {
+		assertIsNonNullArgument(photoId, "photoId");
+		assertIsNonNullArgument(conditions, "conditions");
+
+		int id = photoId.asInt();
+		Set<String> newConditions = new HashSet<String>(conditions);
+
+		lock.writeLock().lock();
+		try {
+			Set<String> oldConditions = conditionsByPhotoId.get(id);
+			if (oldConditions != null) {
+				for (String condition : oldConditions) {
+					if (!newConditions.contains(condition)) {
+						doRemove(condition, id);
+					}
+				}
+			}
+
+			for (String condition : newConditions) {
+				if (oldConditions == null || !oldConditions.contains(condition)) {
+					PhotoIdSet photoIds = photoIdsByCondition.get(condition);
+					if (photoIds == null) {
+						photoIds = new PhotoIdSet();
+						photoIdsByCondition.put(condition, photoIds);
+					}
+					photoIds.add(id);
+				}
+			}
+
+			if (newConditions.isEmpty()) {
+				conditionsByPhotoId.remove(id);
+			} else {
+				conditionsByPhotoId.put(id, newConditions);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removePhoto(PhotoId photoId) {
+		assertIsNonNullArgument(photoId, "photoId");
+		setConditions(photoId, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getConditions(PhotoId photoId) {
+		assertIsNonNullArgument(photoId, "photoId");
+
+		lock.readLock().lock();
+		try {
+			Set<String> result = conditionsByPhotoId.get(photoId.asInt());
+			return (result == null) ? Collections.<String>emptySet() : new HashSet<String>(result);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasConditions(int id, Collection<String> conditions) {
+		assertIsNonNullArgument(conditions, "conditions");
+
+		lock.readLock().lock();
+		try {
+			Set<String> photoConditions = conditionsByPhotoId.get(id);
+			if (photoConditions == null) {
+				return conditions.isEmpty();
+			}
+			return photoConditions.containsAll(conditions);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that match every one of the given conditions.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoIdSet getPhotoIds(Collection<String> conditions) {
+		assertIsNonNullArgument(conditions, "conditions");
+
+		PhotoIdSet result = null;
+		lock.readLock().lock();
+		try {
+			for (String condition : conditions) {
+				PhotoIdSet photoIds = photoIdsByCondition.get(condition);
+				if (photoIds == null) {
+					return new PhotoIdSet();
+				}
+
+				if (result == null) {
+					result = photoIds.copy();
+				} else {
+					result.retainAll(photoIds);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return (result == null) ? new PhotoIdSet() : result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			photoIdsByCondition.clear();
+			conditionsByPhotoId.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Needs to be called while holding the write lock.
+	 *
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void doRemove(String condition, int id) {
+		PhotoIdSet photoIds = photoIdsByCondition.get(condition);
+		if (photoIds != null) {
+			photoIds.remove(id);
+			if (photoIds.isEmpty()) {
+				photoIdsByCondition.remove(condition);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsNonNullArgument(Object arg, String label) {
+		if (arg == null) {
+			throw new IllegalArgumentException(label + " should not be null");
+		}
+	}
+
+}
@@ -20,12 +20,26 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.Transform;
+import com.google.appengine.api.utils.SystemProperty;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -36,6 +50,36 @@ public class PhotoUtil {
 
 	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
 
+	/**
+	 * Upper bound on the threads scaling the images of one photo
+	 */
+	public static final int MAX_SCALING_THREADS = 4;
+
+	/**
+	 * System property that turns on lazy scaling: only the largest size and the thumbnail are created on upload, the
+	 * other sizes when they are first requested
+	 */
+	public static final String LAZY_SCALING_PROPERTY = "org.wahlzeit.lazyScaling";
+
+	/**
+	 *
+	 */
+	protected static boolean isLazyScaling = Boolean.getBoolean(LAZY_SCALING_PROPERTY);
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isLazyScaling() {
+		return isLazyScaling;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setLazyScaling(boolean lazyScaling) {
+		isLazyScaling = lazyScaling;
+	}
+
 	/**
 	 * @methodtype creation
 	 */
@@ -53,7 +97,9 @@ public class PhotoUtil {
 	}
 
 	/**
-	 *
+	 * Creates all sizes of the photo that fit into the source, or only the largest of these and the thumbnail when
+	 * scaling lazily. The source is scaled only once, to the largest size; all smaller sizes are then scaled from that
+	 * much smaller result, in parallel.
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
 		assertIsValidImage(source);
@@ -62,11 +108,105 @@ public class PhotoUtil {
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
+		List<PhotoSize> sizes = new ArrayList<PhotoSize>();
 		for (PhotoSize size : PhotoSize.values()) {
 			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
+				sizes.add(0, size);
 			}
 		}
+
+		// applying a transform changes the image it is applied to, so work on a new image of the same data
+		PhotoSize largestSize = sizes.get(0);
+		Image largestImage = scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), largestSize);
+		photo.setImage(largestSize, largestImage);
+
+		List<PhotoSize> smallerSizes = sizes.subList(1, sizes.size());
+		if (isLazyScaling && smallerSizes.contains(PhotoSize.THUMB)) {
+			smallerSizes = Collections.singletonList(PhotoSize.THUMB);
+		}
+
+		Map<PhotoSize, Image> smallerImages = scaleImages(largestImage.getImageData(), smallerSizes);
+		for (Map.Entry<PhotoSize, Image> entry : smallerImages.entrySet()) {
+			photo.setImage(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Creates an image of the given size for a photo that lacks it, from the smallest larger image the photo has.
+	 * Returns null if the photo has no larger image.
+	 */
+	public static Image createScaledImage(Photo photo, PhotoSize size) throws Exception {
+		Image source = null;
+		for (PhotoSize sourceSize : PhotoSize.values()) {
+			if (size.isSmaller(sourceSize) && photo.getImage(sourceSize) != null) {
+				source = photo.getImage(sourceSize);
+				break;
+			}
+		}
+
+		if (source == null) {
+			return null;
+		}
+		return scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Scales the image data to each of the sizes on a bounded number of threads and waits for all of them. A single
+	 * size, like the thumbnail when scaling lazily, is not worth a thread and is scaled right away.
+	 */
+	protected static Map<PhotoSize, Image> scaleImages(final byte[] sourceData, List<PhotoSize> sizes)
+			throws Exception {
+		Map<PhotoSize, Image> result = new EnumMap<PhotoSize, Image>(PhotoSize.class);
+		if (sizes.isEmpty()) {
+			return result;
+		} else if (sizes.size() == 1) {
+			PhotoSize size = sizes.get(0);
+			result.put(size, scaleImage(ImagesServiceFactory.makeImage(sourceData), size));
+			return result;
+		}
+
+		int noThreads = Math.min(MAX_SCALING_THREADS, sizes.size());
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads, getScalingThreadFactory());
+		try {
+			Map<PhotoSize, Future<Image>> scaledImages = new EnumMap<PhotoSize, Future<Image>>(PhotoSize.class);
+			for (final PhotoSize size : sizes) {
+				scaledImages.put(size, executor.submit(new Callable<Image>() {
+					@Override
+					public Image call() throws Exception {
+						return scaleImage(ImagesServiceFactory.makeImage(sourceData), size);
+					}
+				}));
+			}
+
+			for (Map.Entry<PhotoSize, Future<Image>> entry : scaledImages.entrySet()) {
+				try {
+					result.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					throw (cause instanceof Exception) ? (Exception) cause : ex;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Threads on App Engine have to be bound to the current request.
+	 */
+	protected static ThreadFactory getScalingThreadFactory() {
+		if (SystemProperty.environment.value() != null) {
+			return ThreadManager.currentRequestThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
 	}
 
 	/**
@@ -88,10 +228,9 @@ public class PhotoUtil {
 	}
 
 	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
-	 * photo.
+	 * @methodtype command Scale the source picture to the given size; this changes source.
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
+	protected static Image scaleImage(Image source, PhotoSize size) throws Exception {
 		int sourceWidth = source.getWidth();
 		int sourceHeight = source.getHeight();
 
@@ -100,11 +239,12 @@ public class PhotoUtil {
 
 		ImagesService imagesService = ImagesServiceFactory.getImagesService();
 		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
+		Image result = imagesService.applyTransform(resize, source);
 
-		photo.setImage(size, newImage);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Scaled image to size", size.asString()).publish();
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+		return result;
 	}
 
 }
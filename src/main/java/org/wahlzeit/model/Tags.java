@@ -142,13 +142,21 @@ public class Tags implements Serializable {
 	 *
 	 */
 	public String asString(boolean lead, char sep) {
-		StringBuffer result = new StringBuffer();
-		String seps = (lead ? " " : "") + sep + " ";
-		String[] myTags = asArray();
-		for (int i = 0; i < myTags.length; i++) {
-			if (i != 0)
-				result.append(seps);
-			result.append(myTags[i]);
+		if (tags.isEmpty()) {
+			return "";
+		} else if (tags.size() == 1) {
+			return tags.iterator().next();
+		}
+
+		StringBuilder result = StringUtil.getStringBuilder();
+		for (String tag : tags) {
+			if (result.length() != 0) {
+				if (lead) {
+					result.append(' ');
+				}
+				result.append(sep).append(' ');
+			}
+			result.append(tag);
 		}
 		return result.toString();
 	}
@@ -200,12 +208,23 @@ public class Tags implements Serializable {
 	}
 
 	/**
-	 *
+	 * Returns n itself if it already is a tag.
 	 */
 	public static String asTag(String n) {
-		StringBuffer result = new StringBuffer(n.length());
+		int start = 0;
+		for (; start < n.length(); start++) {
+			char c = n.charAt(start);
+			if (!Character.isDigit(c) && !(Character.isLetter(c) && Character.toLowerCase(c) == c)) {
+				break;
+			}
+		}
+		if (start == n.length()) {
+			return n;
+		}
 
-		for (int i = 0; i < n.length(); i++) {
+		StringBuilder result = StringUtil.getStringBuilder();
+		result.append(n, 0, start);
+		for (int i = start; i < n.length(); i++) {
 			char c = n.charAt(i);
 			if (Character.isLetter(c)) {
 				result.append(Character.toLowerCase(c));
@@ -32,6 +32,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -110,11 +111,11 @@ public class User extends Client {
 							  Client previousClient) {
 		super.initialize(id, nickName, emailAddress, accessRights, previousClient);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("initialize user").
 				addParameter("id", id).
 				addParameter("name", nickName).
-				addParameter("E-Mail", emailAddress.asString()).toString());
+				addParameter("E-Mail", emailAddress.asString()).publish();
 		incWriteCount();
 	}
 
@@ -33,6 +33,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -47,6 +49,12 @@ import java.util.logging.Logger;
 public class UserManager extends ClientManager {
 
 	private static final Logger log = Logger.getLogger(UserManager.class.getName());
+
+	/**
+	 * Number of users read from the datastore at once when starting up
+	 */
+	public static final int LOAD_PAGE_SIZE = 500;
+
 	/**
 	 * Reserved names that cannot be registered by regular users
 	 *
@@ -92,22 +100,51 @@ public class UserManager extends ClientManager {
 		ObjectifyService.run(new Work<Void>() {
 			@Override
 			public Void run() {
-				Collection<User> existingUser = new ArrayList<User>();
-				readObjects(existingUser, User.class);
-
-				for (User user : existingUser) {
-					if (!hasClientById(user.getId())) {
-						doAddClient(user);
-					} else {
-						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
-								.toString());
+				readObjects(User.class, LOAD_PAGE_SIZE, new Consumer<List<User>>() {
+					@Override
+					public void accept(List<User> existingUsers) {
+						for (User user : existingUsers) {
+							if (!hasClientById(user.getId())) {
+								doAddClient(user);
+							} else {
+								LogBuilder.createSystemMessage(log, Level.CONFIG).
+										addParameter("user has been loaded", user.getId()).publish();
+							}
+						}
+					}
+				});
+				return null;
+			}
+		});
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("loaded all clients").publish();
+	}
+
+	/**
+	 * Restores the users of a snapshot of the model instead of loading all of them; afterwards only the users changed
+	 * since the given time are read from the datastore and replace their snapshot state.
+	 */
+	public void restoreUsers(Collection<User> users, final long changedSince) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				for (User user : users) {
+					doAddClient(user);
+				}
+
+				// subclasses are queried through Client to get by with the built-in single property index
+				Collection<Client> changedClients = new ArrayList<Client>();
+				readObjects(changedClients, Client.class, Client.MODIFICATION_TIME + " >", changedSince);
+				for (Client client : changedClients) {
+					if (client instanceof User) {
+						doAddClient(client);
 					}
 				}
 				return null;
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("restored all clients").publish();
 	}
 
 	/**
@@ -27,9 +27,7 @@ import org.wahlzeit.utils.HtmlUtil;
 import javax.servlet.http.HttpSession;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -101,7 +99,7 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void clearPraisedPhotos() {
-		httpSession.setAttribute(PRAISED_PHOTOS, new HashSet<Photo>());
+		httpSession.setAttribute(PRAISED_PHOTOS, new PhotoIdSet());
 	}
 
 	/**
@@ -178,15 +176,27 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype boolean query
 	 */
 	public boolean hasPraisedPhoto(Photo photo) {
-		Set praisedPhotos = (Set) httpSession.getAttribute(PRAISED_PHOTOS);
-		if (praisedPhotos != null) {
-			return praisedPhotos.contains(photo);
+		PhotoIdSet praisedPhotoIds = (PhotoIdSet) httpSession.getAttribute(PRAISED_PHOTOS);
+		if (praisedPhotoIds != null) {
+			return praisedPhotoIds.contains(photo.getId());
 		} else {
 			log.warning("Found no set of praised Photos to search for Photo.");
 			return false;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void addPraisedPhoto(Photo photo) {
+		PhotoIdSet praisedPhotoIds = (PhotoIdSet) httpSession.getAttribute(PRAISED_PHOTOS);
+		if (praisedPhotoIds == null) {
+			praisedPhotoIds = new PhotoIdSet();
+		}
+		praisedPhotoIds.add(photo.getId());
+		httpSession.setAttribute(PRAISED_PHOTOS, praisedPhotoIds);
+	}
+
 	/**
 	 *
 	 */
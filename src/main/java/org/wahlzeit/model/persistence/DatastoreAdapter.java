@@ -22,6 +22,7 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
@@ -32,6 +33,7 @@ import org.wahlzeit.services.OfyService;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -59,11 +61,11 @@ public class DatastoreAdapter extends ImageStorage {
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").publish();
 		} else {
-			log.warning(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.WARNING).
 					addMessage("did not get an Image type to store").
-					addParameter("image type", image.toString()).toString());
+					addParameter("image type", image.toString()).publish();
 		}
 	}
 
@@ -79,33 +81,36 @@ public class DatastoreAdapter extends ImageStorage {
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").publish();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").publish();
 			} else {
-				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("ImageWrapper contains no Image").publish();
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Looks the image up by key. Unlike a query, such a lookup is strongly consistent, so an image written just before
+	 * is never reported missing; ImageStorage trusts a negative answer for a while. A keys-only query would avoid
+	 * transferring the image data but may miss recent writes.
+	 */
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
-		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		final Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
+			@Override
+			public ImageWrapper run() {
+				return OfyService.ofy().load().key(key).now();
+			}
+		});
+
+		boolean result = imageWrapper != null;
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).publish();
 		return result;
 	}
 
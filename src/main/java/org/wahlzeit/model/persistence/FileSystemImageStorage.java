@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Image storage in the local file system, for deployments outside of Google App Engine. Images are spread over two
+ * levels of 256 directories each, chosen by a hash of the photo id, so no directory grows too large. Image data is
+ * handed out through memory-mapped files and not copied onto the heap.
+ *
+ * @review
+ */
+public class FileSystemImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final String FILE_ENDING = ".img";
+	protected static final String TEMP_FILE_ENDING = ".tmp";
+
+	/**
+	 *
+	 */
+	protected final Path rootDir;
+
+	/**
+	 *
+	 */
+	public FileSystemImageStorage(Path rootDir) {
+		if (rootDir == null) {
+			throw new IllegalArgumentException("Path rootDir may not be null");
+		}
+		this.rootDir = rootDir.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Path getRootDir() {
+		return rootDir;
+	}
+
+	/**
+	 * Writes into a temporary file first and moves that into place, so readers never see a partially written image.
+	 * Each write has a temporary file of its own, so concurrent writes of the same image cannot mix.
+	 */
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (image instanceof Image) {
+			Path file = getImageFile(photoIdAsString, size);
+			Files.createDirectories(file.getParent());
+
+			Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_FILE_ENDING);
+			try {
+				Files.write(tempFile, ((Image) image).getImageData());
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").publish();
+		} else {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).publish();
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		Path file = getImageFile(photoIdAsString, size);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			byte[] data = new byte[(int) channel.size()];
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading
+			}
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").publish();
+			return ImagesServiceFactory.makeImage(data);
+		} catch (NoSuchFileException e) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("does not exist!").publish();
+			return null;
+		}
+	}
+
+	@Override
+	protected StoredImage doOpenImage(String photoIdAsString, int size) throws IOException {
+		Path file = getImageFile(photoIdAsString, size);
+		try {
+			return new MappedStoredImage(FileChannel.open(file, StandardOpenOption.READ));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(getImageFile(photoIdAsString, size));
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).publish();
+		return result;
+	}
+
+	/**
+	 * The photo id is encoded for the file name, so no photo id can lead outside of the root directory.
+	 *
+	 * @methodtype get
+	 */
+	protected Path getImageFile(String photoIdAsString, int size) {
+		int hash = photoIdAsString.hashCode();
+		String shard1 = String.format("%02x", (hash >>> 8) & 0xff);
+		String shard2 = String.format("%02x", hash & 0xff);
+		return rootDir.resolve(shard1).resolve(shard2).resolve(asFileName(photoIdAsString) + "-" + size + FILE_ENDING);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asFileName(String photoIdAsString) {
+		try {
+			return URLEncoder.encode(photoIdAsString, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported", e);
+		}
+	}
+
+	/**
+	 * StoredImage that maps its file into memory and writes the mapped buffer to the target channel.
+	 */
+	protected static class MappedStoredImage extends StoredImage {
+
+		protected final FileChannel channel;
+		protected final long length;
+
+		protected MappedStoredImage(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.length = channel.size();
+		}
+
+		@Override
+		public long getLength() {
+			return length;
+		}
+
+		@Override
+		public void transferTo(long position, long count, OutputStream out) throws IOException {
+			assertIsValidRange(position, count);
+			if (count == 0) {
+				return;
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+			WritableByteChannel target = Channels.newChannel(out);
+			while (buffer.hasRemaining()) {
+				buffer.limit(Math.min(buffer.position() + CHUNK_SIZE, buffer.capacity()));
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+				buffer.limit(buffer.capacity());
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.cache.ObjectCache;
+import org.wahlzeit.services.cache.Weigher;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -25,6 +30,28 @@ public abstract class ImageStorage {
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Bounds of the presence cache; other instances may write images, so absence is only trusted for a while
+	 */
+	public static final int MAX_CACHED_PRESENCES = 50000;
+	public static final long ABSENCE_TTL_MILLIS = 60 * 1000;
+
+	/**
+	 * Marks an image as present in the presence cache
+	 */
+	protected static final Long PRESENT = Long.MAX_VALUE;
+
+	/**
+	 * Maps photo id and size of an image to PRESENT or to the time until which its absence is trusted
+	 */
+	protected final ObjectCache<String, Long> presenceCache = new ObjectCache<String, Long>(MAX_CACHED_PRESENCES,
+			MAX_CACHED_PRESENCES, new LruEvictionPolicy<String>(), new Weigher<Long>() {
+		@Override
+		public long weigh(Long value) {
+			return 1;
+		}
+	});
+
 	/**
 	 * @methodtype get
 	 */
@@ -41,9 +68,9 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).publish();
 		instance = newInstance;
 	}
 
@@ -64,12 +91,14 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).publish();
 
+		// the hook may decide not to store the image, so only forget what is known about it
+		presenceCache.remove(asPresenceKey(photoIdAsString, size));
 		doWriteImage(image, photoIdAsString, size);
 	}
 
@@ -97,12 +126,33 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).publish();
 
-		return doReadImage(photoIdAsString, size);
+		Serializable result = doReadImage(photoIdAsString, size);
+		setPresence(photoIdAsString, size, result != null);
+		return result;
+	}
+
+	/**
+	 * Reads an image like readImage but does not access the storage if the image is already known to be absent. This
+	 * replaces a call of doesImageExist followed by readImage, which transfers the image twice in the worst case.
+	 *
+	 * @methodtype get
+	 */
+	public Serializable readImageIfPresent(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		if (Boolean.FALSE.equals(getPresence(photoIdAsString, size))) {
+			return null;
+		}
+
+		return readImage(photoIdAsString, size);
 	}
 
 	/**
@@ -114,6 +164,45 @@ public abstract class ImageStorage {
 	protected abstract Serializable doReadImage(String filename, int size)
 			throws IOException;
 
+	/**
+	 * Opens the data of an image for sending it on, e.g. to a client. When the image is not found, null is returned.
+	 * The caller has to close the returned StoredImage.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public StoredImage openImage(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		if (Boolean.FALSE.equals(getPresence(photoIdAsString, size))) {
+			return null;
+		}
+
+		StoredImage result = doOpenImage(photoIdAsString, size);
+		setPresence(photoIdAsString, size, result != null);
+		return result;
+	}
+
+	/**
+	 * Actually opens the image data. By default the image is read and its data handed out from memory; storages that
+	 * can hand out their data directly should override this.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected StoredImage doOpenImage(String photoIdAsString, int size)
+			throws IOException {
+
+		Serializable image = doReadImage(photoIdAsString, size);
+		if (image instanceof Image) {
+			return StoredImage.fromBytes(((Image) image).getImageData());
+		}
+		return null;
+	}
+
 
 	// exist method ----------------------------------------------------------------------------------------------------
 
@@ -129,17 +218,25 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).publish();
 
-		return doDoesImageExist(photoIdAsString, size);
+		Boolean presence = getPresence(photoIdAsString, size);
+		if (presence != null) {
+			return presence;
+		}
+
+		boolean result = doDoesImageExist(photoIdAsString, size);
+		setPresence(photoIdAsString, size, result);
+		return result;
 	}
 
 
 	/**
-	 * Actually checks if the specified image already exists in the storage
+	 * Actually checks if the specified image already exists in the storage. Implementations should avoid reading the
+	 * image data, but must not report a just written image as missing, because absence is cached.
 	 *
 	 * @methodtype boolean query
 	 * @methodproperty hook
@@ -147,6 +244,42 @@ public abstract class ImageStorage {
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
 
+	// presence cache methods ------------------------------------------------------------------------------------------
+
+	/**
+	 * Returns whether the image is known to be present or absent, or null if that is not known.
+	 *
+	 * @methodtype get
+	 */
+	protected Boolean getPresence(String photoIdAsString, int size) {
+		Long presence = presenceCache.get(asPresenceKey(photoIdAsString, size));
+		if (presence == null) {
+			return null;
+		} else if (PRESENT.equals(presence)) {
+			return Boolean.TRUE;
+		} else if (presence > System.currentTimeMillis()) {
+			return Boolean.FALSE;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setPresence(String photoIdAsString, int size, boolean isPresent) {
+		Long presence = isPresent ? PRESENT : System.currentTimeMillis() + ABSENCE_TTL_MILLIS;
+		presenceCache.put(asPresenceKey(photoIdAsString, size), presence);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asPresenceKey(String photoIdAsString, int size) {
+		return photoIdAsString + "/" + size;
+	}
+
+
 	// assertion methods -----------------------------------------------------------------------------------------------
 
 	/**
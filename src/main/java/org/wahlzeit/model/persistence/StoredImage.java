@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Handle to the data of an image in an {@link ImageStorage}. Lets callers send the image somewhere without the storage
+ * having to turn it into an Image first. Has to be closed after use.
+ *
+ * @review
+ */
+public abstract class StoredImage implements Closeable {
+
+	/**
+	 * Image data is written in chunks of this size, so slow clients do not hold on to large buffers
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * @methodtype factory
+	 */
+	public static StoredImage fromBytes(byte[] data) {
+		if (data == null) {
+			throw new IllegalArgumentException("byte[] data may not be null");
+		}
+		return new BytesStoredImage(data);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract long getLength();
+
+	/**
+	 * Writes the complete image data to out.
+	 *
+	 * @methodtype command
+	 */
+	public void transferTo(OutputStream out) throws IOException {
+		transferTo(0, getLength(), out);
+	}
+
+	/**
+	 * Writes count bytes of the image data starting at position to out.
+	 *
+	 * @methodtype command
+	 */
+	public abstract void transferTo(long position, long count, OutputStream out) throws IOException;
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidRange(long position, long count) {
+		if (position < 0 || count < 0 || position + count > getLength()) {
+			throw new IndexOutOfBoundsException("position: " + position + ", count: " + count + ", length: " +
+					getLength());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	public void close() throws IOException {
+		// do nothing
+	}
+
+	/**
+	 * StoredImage for image data that already is in memory.
+	 */
+	protected static class BytesStoredImage extends StoredImage {
+
+		protected final byte[] data;
+
+		protected BytesStoredImage(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public long getLength() {
+			return data.length;
+		}
+
+		@Override
+		public void transferTo(long position, long count, OutputStream out) throws IOException {
+			assertIsValidRange(position, count);
+			int end = (int) (position + count);
+			for (int offset = (int) position; offset < end; offset += CHUNK_SIZE) {
+				out.write(data, offset, Math.min(CHUNK_SIZE, end - offset));
+			}
+		}
+	}
+}
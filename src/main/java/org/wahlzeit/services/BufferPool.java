@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A BufferPool recycles byte arrays for writing responses. Buffers are sized to what recent users needed: the pool
+ * keeps a moving average of the reported sizes and hands out the next power of two above it, within bounds.
+ * Buffers of an outdated size are dropped when they are returned.
+ */
+public class BufferPool {
+
+	/**
+	 * Weight of a new size in the moving average, as a shift: 1/8
+	 */
+	protected static final int AVERAGE_SHIFT = 3;
+
+	/**
+	 *
+	 */
+	protected final int minBufferSize;
+	protected final int maxBufferSize;
+	protected final BlockingQueue<byte[]> buffers;
+
+	/**
+	 * Updated without synchronization; a lost update only delays tuning a little
+	 */
+	protected volatile int averageSize;
+	protected volatile int bufferSize;
+
+	/**
+	 *
+	 */
+	public BufferPool(int minBufferSize, int maxBufferSize, int maxPooledBuffers) {
+		if (minBufferSize < 1 || maxBufferSize < minBufferSize) {
+			throw new IllegalArgumentException("invalid buffer size bounds: " + minBufferSize + ", " + maxBufferSize);
+		}
+		if (maxPooledBuffers < 1) {
+			throw new IllegalArgumentException("maxPooledBuffers must be positive");
+		}
+
+		this.minBufferSize = minBufferSize;
+		this.maxBufferSize = maxBufferSize;
+		this.buffers = new ArrayBlockingQueue<byte[]>(maxPooledBuffers);
+		this.averageSize = minBufferSize;
+		this.bufferSize = minBufferSize;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public byte[] acquire() {
+		int size = bufferSize;
+		byte[] result = buffers.poll();
+		if (result == null || result.length != size) {
+			result = new byte[size];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the buffer to the pool; usedSize is how many bytes its user needed, which may be more than it holds.
+	 *
+	 * @methodtype command
+	 */
+	public void release(byte[] buffer, long usedSize) {
+		int used = (int) Math.min(usedSize, maxBufferSize);
+		int newAverage = averageSize + ((used - averageSize) >> AVERAGE_SHIFT);
+		averageSize = newAverage;
+		bufferSize = getBufferSizeFor(newAverage);
+
+		if (buffer != null && buffer.length == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+
+	/**
+	 * Leaves room for pages half again as large as the average.
+	 *
+	 * @methodtype conversion
+	 */
+	protected int getBufferSizeFor(int size) {
+		int wanted = size + (size >> 1);
+		int result = Integer.highestOneBit(Math.max(wanted - 1, 1)) << 1;
+		return Math.max(minBufferSize, Math.min(maxBufferSize, result));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPooledBuffers() {
+		return buffers.size();
+	}
+
+}
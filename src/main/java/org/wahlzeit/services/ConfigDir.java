@@ -48,6 +48,20 @@ public class ConfigDir extends Directory {
 		customDirName = asString() + File.separator + CUSTOM_DIR_NAME;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public String getDefaultDirName() {
+		return defaultDirName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getCustomDirName() {
+		return customDirName;
+	}
+
 	/**
 	 *
 	 */
@@ -21,10 +21,13 @@
 package org.wahlzeit.services;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simple abstract implementation of Persistent with write count and dirty bit.
  * Also defines (but does not use) the field "ID" for subclass use.
+ * Subclasses may tell which group of fields a write changed, so that managers only update the affected dependents.
  */
 public abstract class DataObject implements Persistent, Serializable {
 
@@ -33,30 +36,105 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 * Field groups are bits defined by subclasses; a write without field group changes all of them
+	 */
+	public static final int ALL_FIELD_GROUPS = ~0;
+
+	/**
+	 * Field groups changed since the last reset of the write count; the object is dirty as long as any is set. Updated
+	 * atomically, as some fields may be changed concurrently, e.g. by votes on a photo.
+	 */
+	protected transient volatile int dirtyFieldGroups = 0;
+
 	/**
 	 *
 	 */
-	protected transient int writeCount = 0;
+	protected static final AtomicIntegerFieldUpdater<DataObject> dirtyFieldGroupsUpdater =
+			AtomicIntegerFieldUpdater.newUpdater(DataObject.class, "dirtyFieldGroups");
+
+	/**
+	 * Every data object, and every write to one, draws the next version from this sequence
+	 */
+	protected static final AtomicLong lastVersion = new AtomicLong();
+
+	/**
+	 * Unlike the write count, the version is never reset; a reloaded object gets a new, higher one
+	 */
+	protected transient volatile long version = nextVersion();
 
 	/**
 	 *
 	 */
 	public final boolean isDirty() {
-		return writeCount != 0;
+		return dirtyFieldGroups != 0;
 	}
 
 	/**
 	 *
 	 */
 	public final void resetWriteCount() {
-		writeCount = 0;
+		dirtyFieldGroups = 0;
+	}
+
+	/**
+	 * Marks the object as clean and returns the field groups changed until then. Meant to be called before the object
+	 * is saved, so that changes made while saving leave it dirty.
+	 *
+	 * @methodtype command
+	 */
+	public final int takeDirtyFieldGroups() {
+		return dirtyFieldGroupsUpdater.getAndSet(this, 0);
 	}
 
 	/**
 	 *
 	 */
 	public final void incWriteCount() {
-		writeCount++;
+		incWriteCount(ALL_FIELD_GROUPS);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public final void incWriteCount(int fieldGroups) {
+		// most writes find their field groups set already and need no atomic update
+		int oldFieldGroups = dirtyFieldGroups;
+		while ((oldFieldGroups & fieldGroups) != fieldGroups &&
+				!dirtyFieldGroupsUpdater.compareAndSet(this, oldFieldGroups, oldFieldGroups | fieldGroups)) {
+			oldFieldGroups = dirtyFieldGroups;
+		}
+		version = nextVersion();
+	}
+
+	/**
+	 * Also used by persistent objects that are no data objects.
+	 *
+	 * @methodtype factory
+	 */
+	public static long nextVersion() {
+		return lastVersion.incrementAndGet();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public final long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public final int getDirtyFieldGroups() {
+		return dirtyFieldGroups;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public final boolean isDirty(int fieldGroups) {
+		return (dirtyFieldGroups & fieldGroups) != 0;
 	}
 
 	/**
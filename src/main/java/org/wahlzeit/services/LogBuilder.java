@@ -6,6 +6,10 @@ import org.wahlzeit.model.UserSession;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -14,7 +18,13 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
- * 
+ *
+ * A LogBuilder only records what is added; the client lookup and all formatting happen in toString(). The factories
+ * taking a Logger and a Level return a shared no-op builder if the level is disabled, and publish() hands a record to
+ * the logger that is formatted only when a handler actually asks for its message:
+ *
+ * <code>LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("size", size).publish();</code>
+ *
  * @review
  */
 public class LogBuilder {
@@ -31,11 +41,100 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
-	protected StringBuilder logMessage;
+	/**
+	 * Builders growing beyond this capacity are not kept for reuse
+	 */
+	protected static final int MAX_BUFFER_CAPACITY = 8192;
+
+	/**
+	 * Formatting buffer of the current thread; null while in use, so nested formatting gets its own
+	 */
+	protected static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+
+	/**
+	 * Returned by the level-aware factories for disabled levels; ignores everything
+	 */
+	protected static final LogBuilder DISABLED = new LogBuilder(null, null, null, null) {
+		@Override
+		public LogBuilder addParameter(String name, int value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, long value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, boolean value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, String value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addParameter(String name, Object value) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addMessage(String message) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addException(String exceptionMessage, Throwable throwable) {
+			return this;
+		}
+
+		@Override
+		public LogBuilder addAction(String action) {
+			return this;
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void publish() {
+			// do nothing
+		}
+
+		@Override
+		public String toString() {
+			return "";
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final String level;
+	protected final Session session;
+
+	/**
+	 * Logger and level to publish to; null for builders that are only turned into strings
+	 */
+	protected final Logger logger;
+	protected final Level logLevel;
+
+	/**
+	 * Pairs of name and value as added; a null name marks a plain message, STACKTRACE a Throwable value
+	 */
+	protected Object[] parts = new Object[8];
+	protected int noParts = 0;
 
 
-	protected LogBuilder() {
-		logMessage = new StringBuilder();
+	protected LogBuilder(String level, Session session, Logger logger, Level logLevel) {
+		this.level = level;
+		this.session = session;
+		this.logger = logger;
+		this.logLevel = logLevel;
 	}
 
 
@@ -48,53 +147,37 @@ public class LogBuilder {
 	 * clients name.
 	 */
 	public static LogBuilder createUserMessage() {
-		return doCreateMessage(USER_LEVEL);
+		return doCreateMessage(USER_LEVEL, null, null);
 	}
 
 	/**
 	 * @methodtype factory
 	 *
-	 * Primitive Method that creates a LogBuilder Object and adds the Level, the current <code>HttpSession</code>, and
-	 * the clients name.
+	 * Like createUserMessage(), but returns a builder that ignores everything if logger does not log logLevel.
 	 */
-	protected static LogBuilder doCreateMessage(String level) {
-		LogBuilder result = new LogBuilder();
-		Session session = SessionManager.getThreadLocalSession();
-		String sessionName;
-		String clientName;
-		if (session != null) {
-			sessionName = session.getName();
-			Client client = UserManager.getInstance().getClientById(session.getClientId());
-			if (client != null) {
-				clientName = client.getNickName();
-			} else {
-				clientName = UserSession.ANONYMOUS_CLIENT;
-			}
-		} else {
-			sessionName = Session.NO_SESSION;
-			clientName = UserSession.ANONYMOUS_CLIENT;
-		}
-
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
+	public static LogBuilder createUserMessage(Logger logger, Level logLevel) {
+		return logger.isLoggable(logLevel) ? doCreateMessage(USER_LEVEL, logger, logLevel) : DISABLED;
+	}
 
-		return result;
+	/**
+	 * @methodtype factory
+	 *
+	 * Primitive Method that creates a LogBuilder Object and adds the Level and the current <code>HttpSession</code>;
+	 * the clients name is looked up when the message is formatted.
+	 */
+	protected static LogBuilder doCreateMessage(String level, Logger logger, Level logLevel) {
+		return new LogBuilder(level, SessionManager.getThreadLocalSession(), logger, logLevel);
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	protected void add(String logMessagePart) {
-
-		assert logMessage != null;
-
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
-			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
+	protected void add(String name, Object value) {
+		if (noParts == parts.length) {
+			parts = Arrays.copyOf(parts, 2 * parts.length);
 		}
+		parts[noParts++] = name;
+		parts[noParts++] = value;
 	}
 
 
@@ -107,7 +190,16 @@ public class LogBuilder {
 	 * clients name.
 	 */
 	public static LogBuilder createSystemMessage() {
-		return doCreateMessage(SYSTEM_LEVEL);
+		return doCreateMessage(SYSTEM_LEVEL, null, null);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createSystemMessage(), but returns a builder that ignores everything if logger does not log logLevel.
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level logLevel) {
+		return logger.isLoggable(logLevel) ? doCreateMessage(SYSTEM_LEVEL, logger, logLevel) : DISABLED;
 	}
 
 	/**
@@ -116,7 +208,17 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		add(String.valueOf(name), value);
+		return this;
+	}
+
+	/**
+	 * @methodtype mutate
+	 *
+	 * Adds the following to the LogMessage: ", <name>=<value>".
+	 */
+	public LogBuilder addParameter(String name, long value) {
+		add(String.valueOf(name), value);
 		return this;
 	}
 
@@ -126,7 +228,7 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		add(String.valueOf(name), value);
 		return this;
 	}
 
@@ -136,17 +238,17 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		add(String.valueOf(name), value);
 		return this;
 	}
 
 	/**
 	 * @methodtype mutate
 	 *
-	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
+	 * Adds the following to the LogMessage: ", <name>=<value>.toString()"; value is converted when formatting.
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		add(String.valueOf(name), value);
 		return this;
 	}
 
@@ -156,7 +258,7 @@ public class LogBuilder {
 	 * Adds the message to the LogMessage: ", <message>".
 	 */
 	public LogBuilder addMessage(String message) {
-		add(message);
+		add(null, message);
 		return this;
 	}
 
@@ -166,10 +268,8 @@ public class LogBuilder {
 	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
-		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
-		StringWriter sw = new StringWriter();
-		throwable.printStackTrace(new PrintWriter(sw));
-		add(STACKTRACE + NAME_VALUE_SEPARATOR + sw.toString());
+		add(EXCEPTION_REASON, exceptionMessage);
+		add(STACKTRACE, throwable);
 		return this;
 	}
 
@@ -182,10 +282,32 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		add(ACTION, action);
 		return this;
 	}
 
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Hands the message to the logger given at creation; it is formatted only if a handler publishes it.
+	 */
+	public void publish() {
+		if (logger == null) {
+			throw new IllegalStateException("LogBuilder was created without a logger to publish to");
+		}
+
+		LogBuilderRecord record = new LogBuilderRecord(logLevel, this);
+		record.setLoggerName(logger.getName());
+		logger.log(record);
+	}
+
 
 	// hidden setter and getter methods --------------------------------------------------------------------------------
 
@@ -196,10 +318,167 @@ public class LogBuilder {
 	 */
 	@Override
 	public String toString() {
+		StringBuilder buffer = buffers.get();
+		buffers.set(null);
+		if (buffer == null) {
+			buffer = new StringBuilder(256);
+		}
 
-		assert logMessage != null;
-		assert logMessage.length() > 0;
+		try {
+			buffer.setLength(0);
+			appendTo(buffer);
+			assert buffer.length() > 0;
+			return buffer.toString();
+		} finally {
+			if (buffer.capacity() <= MAX_BUFFER_CAPACITY) {
+				buffers.set(buffer);
+			}
+		}
+	}
 
-		return logMessage.toString();
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void appendTo(StringBuilder buffer) {
+		String sessionName = Session.NO_SESSION;
+		String clientName = UserSession.ANONYMOUS_CLIENT;
+		if (session != null) {
+			sessionName = session.getName();
+			Client client = UserManager.getInstance().getClientById(session.getClientId());
+			if (client != null) {
+				clientName = client.getNickName();
+			}
+		}
+
+		buffer.append(LEVEL).append(NAME_VALUE_SEPARATOR).append(level);
+		buffer.append(INFO_SEPARATOR).append(SESSION).append(NAME_VALUE_SEPARATOR).append(sessionName);
+		buffer.append(INFO_SEPARATOR).append(CLIENT).append(NAME_VALUE_SEPARATOR).append(clientName);
+
+		for (int i = 0; i < noParts; i += 2) {
+			Object name = parts[i];
+			Object value = parts[i + 1];
+			buffer.append(INFO_SEPARATOR);
+			if (name != null) {
+				buffer.append(name).append(NAME_VALUE_SEPARATOR);
+			}
+			if (name == STACKTRACE && value instanceof Throwable) {
+				StringWriter sw = new StringWriter();
+				((Throwable) value).printStackTrace(new PrintWriter(sw));
+				buffer.append(sw.getBuffer());
+			} else {
+				buffer.append(value);
+			}
+		}
 	}
+
+	/**
+	 * A LogRecord formatting its LogBuilder when its message is first asked for. The caller is taken to be the
+	 * method that called publish(), not the LogBuilder itself.
+	 */
+	protected static class LogBuilderRecord extends LogRecord {
+
+		/**
+		 *
+		 */
+		protected transient LogBuilder builder;
+		protected transient boolean isCallerInferred = false;
+
+		/**
+		 *
+		 */
+		protected LogBuilderRecord(Level level, LogBuilder builder) {
+			super(level, null);
+			this.builder = builder;
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public String getMessage() {
+			if (builder != null) {
+				super.setMessage(builder.toString());
+				builder = null;
+			}
+			return super.getMessage();
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public void setMessage(String message) {
+			builder = null;
+			super.setMessage(message);
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public String getSourceClassName() {
+			inferCaller();
+			return super.getSourceClassName();
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public String getSourceMethodName() {
+			inferCaller();
+			return super.getSourceMethodName();
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public void setSourceClassName(String sourceClassName) {
+			isCallerInferred = true;
+			super.setSourceClassName(sourceClassName);
+		}
+
+		/**
+		 *
+		 */
+		@Override
+		public void setSourceMethodName(String sourceMethodName) {
+			isCallerInferred = true;
+			super.setSourceMethodName(sourceMethodName);
+		}
+
+		/**
+		 * Called while publishing, so the stack still holds LogBuilder.publish() and its caller.
+		 */
+		protected void inferCaller() {
+			if (isCallerInferred) {
+				return;
+			}
+			isCallerInferred = true;
+
+			String builderClassName = LogBuilder.class.getName();
+			boolean isAfterPublish = false;
+			for (StackTraceElement frame : new Throwable().getStackTrace()) {
+				if (builderClassName.equals(frame.getClassName())) {
+					isAfterPublish = true;
+				} else if (isAfterPublish) {
+					super.setSourceClassName(frame.getClassName());
+					super.setSourceMethodName(frame.getMethodName());
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Formats the message before serializing, as the LogBuilder is not serialized.
+		 */
+		private Object writeReplace() {
+			getMessage();
+			inferCaller();
+			return this;
+		}
+	}
+
 }
@@ -20,13 +20,20 @@
 
 package org.wahlzeit.services;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.cmd.Query;
 import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -48,6 +55,11 @@ public abstract class ObjectManager {
 
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 * The Datastore writes at most this many entities in one call
+	 */
+	public static final int MAX_BATCH_SIZE = 500;
+
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -56,8 +68,8 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).addParameter("id", id).publish();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -77,8 +89,8 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).addParameter("id", id).publish();
 		return OfyService.ofy().load().type(type).id(id).now();
 	}
 
@@ -91,9 +103,9 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load entity of type", type.getName()).
+				addParameter(parameterName, value).publish();
 
 		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
@@ -106,14 +118,57 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).publish();
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).publish();
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads all Entities of the specified type in pages of at most pageSize entities and hands each page to the
+	 * consumer. Every page is read by a query that starts at the cursor of the previous one, so all entities never need
+	 * to be in memory at once. Returns the number of entities read.
+	 */
+	protected <E> int readObjects(Class<E> type, int pageSize, Consumer<List<E>> pageConsumer) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(pageConsumer, "pageConsumer");
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load pages of entities of type", type.getName()).
+				addParameter("page size", pageSize).publish();
+
+		int result = 0;
+		Cursor cursor = null;
+		do {
+			Query<E> query = OfyService.ofy().load().type(type).ancestor(applicationRootKey).
+					limit(pageSize).chunk(pageSize);
+			if (cursor != null) {
+				query = query.startAt(cursor);
+			}
+
+			QueryResultIterator<E> iterator = query.iterator();
+			List<E> page = new ArrayList<E>(pageSize);
+			while (iterator.hasNext()) {
+				page.add(iterator.next());
+			}
+
+			if (!page.isEmpty()) {
+				result += page.size();
+				pageConsumer.accept(page);
+			}
+			cursor = (page.size() < pageSize) ? null : iterator.getCursor();
+		} while (cursor != null);
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", result).publish();
+		return result;
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
@@ -124,30 +179,36 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: load all entities of type", type.getName()).
+				addParameter(propertyName, value).publish();
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).publish();
 		result.addAll(objects);
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all entities of the given collection in the datastore, in batches.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
-		for (Persistent object : collection) {
-			updateObject(object);
-		}
+		writeObjects(collection);
 	}
 
 	/**
-	 * Updates the given entity in the datastore.
+	 * Updates the given entity in the datastore. The write is left to the WriteBehindQueue if it is running, so the
+	 * calling thread does not wait for the Datastore.
 	 */
 	protected void updateObject(Persistent object) {
-		writeObject(object);
+		assertIsNonNullArgument(object, "object");
+
+		WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+		if (writeBehindQueue.isRunning()) {
+			writeBehindQueue.enqueue(this, object);
+		} else {
+			writeObject(object);
+		}
 	}
 
 	/**
@@ -157,14 +218,92 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
-			updateDependents(object);
-			object.resetWriteCount();
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write object of type", object).publish();
+
+			// reset first, so that changes made while saving mark the object dirty again
+			int fieldGroups = takeDirtyFieldGroups(object);
+			try {
+				OfyService.ofy().save().entity(object).now();
+			} catch (RuntimeException ex) {
+				incWriteCount(object, fieldGroups);
+				throw ex;
+			}
+			updateDependents(object, fieldGroups);
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).publish();
+		}
+	}
+
+	/**
+	 * Writes all dirty entities of the collection to the datastore with as few calls as possible.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> objects) {
+		assertIsNonNullArgument(objects, "objects");
+
+		List<Persistent> dirtyObjects = new ArrayList<Persistent>();
+		for (Persistent object : objects) {
+			if (object.isDirty()) {
+				dirtyObjects.add(object);
+			}
+		}
+
+		for (int from = 0; from < dirtyObjects.size(); from += MAX_BATCH_SIZE) {
+			List<Persistent> batch = dirtyObjects.subList(from, Math.min(from + MAX_BATCH_SIZE, dirtyObjects.size()));
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write objects", batch.size()).publish();
+
+			// reset first, so that changes made while saving mark an object dirty again
+			int[] fieldGroups = new int[batch.size()];
+			for (int i = 0; i < batch.size(); i++) {
+				fieldGroups[i] = takeDirtyFieldGroups(batch.get(i));
+			}
+			try {
+				OfyService.ofy().save().entities(batch).now();
+			} catch (RuntimeException ex) {
+				for (int i = 0; i < batch.size(); i++) {
+					incWriteCount(batch.get(i), fieldGroups[i]);
+				}
+				throw ex;
+			}
+
+			for (int i = 0; i < batch.size(); i++) {
+				updateDependents(batch.get(i), fieldGroups[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes and deletes the given entities in one round of concurrent Datastore calls. Unlike writeObjects, this does
+	 * not update dependents, so it is meant for dependent objects themselves.
+	 */
+	protected void writeAndDeleteObjects(Collection<? extends Persistent> writtenObjects, Collection<?> deletedObjects) {
+		assertIsNonNullArgument(writtenObjects, "writtenObjects");
+		assertIsNonNullArgument(deletedObjects, "deletedObjects");
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: Write objects", writtenObjects.size()).
+				addParameter("delete objects", deletedObjects.size()).publish();
+
+		Result<?> saveResult = null;
+		if (!writtenObjects.isEmpty()) {
+			saveResult = OfyService.ofy().save().entities(writtenObjects);
+		}
+		Result<?> deleteResult = null;
+		if (!deletedObjects.isEmpty()) {
+			deleteResult = OfyService.ofy().delete().entities(deletedObjects);
+		}
+
+		if (saveResult != null) {
+			saveResult.now();
+		}
+		if (deleteResult != null) {
+			deleteResult.now();
+		}
+
+		for (Persistent object : writtenObjects) {
+			object.resetWriteCount();
 		}
 	}
 
@@ -175,13 +314,46 @@ public abstract class ObjectManager {
 		// overwrite if your object has additional dependencies
 	}
 
+	/**
+	 * Updates the dependencies of the object that are affected by the given changed field groups. Managers that track
+	 * field groups overwrite this; all others update every dependency.
+	 */
+	protected void updateDependents(Persistent object, int dirtyFieldGroups) {
+		updateDependents(object);
+	}
+
+	/**
+	 * Marks the object as clean and returns the field groups changed until then. Objects that do not track field
+	 * groups count as completely changed.
+	 *
+	 * @methodtype command
+	 */
+	protected int takeDirtyFieldGroups(Persistent object) {
+		if (object instanceof DataObject) {
+			return ((DataObject) object).takeDirtyFieldGroups();
+		}
+		object.resetWriteCount();
+		return DataObject.ALL_FIELD_GROUPS;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void incWriteCount(Persistent object, int fieldGroups) {
+		if (object instanceof DataObject) {
+			((DataObject) object).incWriteCount(fieldGroups);
+		} else {
+			object.incWriteCount();
+		}
+	}
+
 	/**
 	 * Deletes the given entity from the datastore.
 	 */
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).publish();
 		OfyService.ofy().delete().entity(object).now();
 	}
 
@@ -194,9 +366,9 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: delete entities of type", type.getName()).
+				addParameter(propertyName, value).publish();
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
 		OfyService.ofy().delete().keys(keys);
@@ -10,6 +10,7 @@ import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.Moderator;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
+import org.wahlzeit.model.PhotoIdSetTranslatorFactory;
 import org.wahlzeit.model.Tag;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
@@ -22,9 +23,11 @@ import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
 public class OfyService {
 
 	/**
-	 * Register all entities at startup
+	 * Register all entities at startup; translators have to be added before the entities using them
 	 */
 	static {
+		factory().getTranslators().add(new PhotoIdSetTranslatorFactory());
+
 		factory().register(Photo.class);
 		factory().register(Globals.class);
 		factory().register(Tag.class);
@@ -24,6 +24,7 @@ import org.wahlzeit.patterns.DesignPattern;
 import org.wahlzeit.patterns.PatternInstance;
 
 import java.io.File;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -92,7 +93,7 @@ public class SysConfig extends AbstractConfig {
 	 * Drop singleton instance to cope with repeated startup/shutdown scenarios
 	 */
 	public static synchronized void dropInstance() {
-		log.config(LogBuilder.createSystemMessage().addAction("drop SysConfig instance").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("drop SysConfig instance").publish();
 		instance = null;
 	}
 
@@ -108,7 +109,7 @@ public class SysConfig extends AbstractConfig {
 	 */
 	public static SysConfig getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("create generic SysConfig").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("create generic SysConfig").publish();
 			setInstance(new SysConfig(""));
 		}
 		return instance;
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.utils.SystemProperty;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A WriteBehindQueue collects Persistent objects that are to be updated and writes them to the Datastore in batches,
+ * off the request threads. An object queued several times before the next flush is written only once. A flush happens
+ * once enough objects are queued or a fixed time has passed, whatever comes first.
+ *
+ * Writes are only deferred while the queue is running; if no background thread can be started, e.g. on an App Engine
+ * instance with automatic scaling, objects are written right away as before.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	/**
+	 *
+	 */
+	protected static WriteBehindQueue instance = null;
+
+	/**
+	 * Objects waiting for the next flush and the manager that writes them; identity-based, as Persistent objects do
+	 * not need to define equals
+	 */
+	protected Map<Persistent, ObjectManager> pendingObjects = new IdentityHashMap<Persistent, ObjectManager>();
+
+	/**
+	 * Serializes flushes, so an object is never written by two flushes at the same time
+	 */
+	protected final Object flushLock = new Object();
+
+	/**
+	 *
+	 */
+	protected final int maxBatchSize;
+	protected final long flushIntervalMillis;
+	protected ScheduledExecutorService executor = null;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong flushCount = new AtomicLong();
+	protected final AtomicLong writtenObjectCount = new AtomicLong();
+	protected final AtomicLong failedFlushCount = new AtomicLong();
+	protected final AtomicLong totalFlushMillis = new AtomicLong();
+	protected volatile long lastFlushMillis = 0;
+	protected volatile long maxFlushMillis = 0;
+
+	/**
+	 * Outside of App Engine, e.g. in unit tests, other threads have no access to the Datastore, so the default queue
+	 * is only started on App Engine.
+	 *
+	 * @methodtype get
+	 */
+	public static synchronized WriteBehindQueue getInstance() {
+		if (instance == null) {
+			instance = new WriteBehindQueue(DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+			if (SystemProperty.environment.value() != null) {
+				instance.start();
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(WriteBehindQueue newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 *
+	 */
+	public WriteBehindQueue(int maxBatchSize, long flushIntervalMillis) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be positive");
+		}
+		if (flushIntervalMillis < 1) {
+			throw new IllegalArgumentException("flushIntervalMillis must be positive");
+		}
+
+		this.maxBatchSize = maxBatchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	/**
+	 * Starts flushing in the background; stays stopped if no background thread can be created.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+
+		try {
+			ScheduledExecutorService newExecutor = Executors.newSingleThreadScheduledExecutor(getThreadFactory());
+			newExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flushSafely();
+				}
+			}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+			executor = newExecutor;
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, "could not start write-behind thread, writing objects synchronously", ex);
+		}
+	}
+
+	/**
+	 * Stops the background flushing and writes all pending objects.
+	 *
+	 * @methodtype command
+	 */
+	public void stop() {
+		ScheduledExecutorService oldExecutor;
+		synchronized (this) {
+			oldExecutor = executor;
+			executor = null;
+		}
+		if (oldExecutor != null) {
+			oldExecutor.shutdown();
+		}
+		flush();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isRunning() {
+		return executor != null;
+	}
+
+	/**
+	 * Queues object to be written by manager with the next flush.
+	 *
+	 * @methodtype command
+	 */
+	public void enqueue(ObjectManager manager, Persistent object) {
+		if (manager == null) {
+			throw new IllegalArgumentException("ObjectManager manager may not be null");
+		}
+		if (object == null) {
+			throw new IllegalArgumentException("Persistent object may not be null");
+		}
+
+		ScheduledExecutorService currentExecutor;
+		boolean isFull;
+		synchronized (this) {
+			pendingObjects.put(object, manager);
+			isFull = pendingObjects.size() >= maxBatchSize;
+			currentExecutor = executor;
+		}
+
+		if (isFull && currentExecutor != null) {
+			try {
+				currentExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						flushSafely();
+					}
+				});
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "could not schedule flush", ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes all pending objects, in one batch per manager. Objects of a failed batch are queued again.
+	 *
+	 * @methodtype command
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			final Map<Persistent, ObjectManager> batch;
+			synchronized (this) {
+				if (pendingObjects.isEmpty()) {
+					return;
+				}
+				batch = pendingObjects;
+				pendingObjects = new IdentityHashMap<Persistent, ObjectManager>();
+			}
+
+			long startTime = System.currentTimeMillis();
+			final Map<ObjectManager, List<Persistent>> objectsByManager = groupByManager(batch);
+			ObjectifyService.run(new VoidWork() {
+				@Override
+				public void vrun() {
+					for (Map.Entry<ObjectManager, List<Persistent>> entry : objectsByManager.entrySet()) {
+						writeBatch(entry.getKey(), entry.getValue());
+					}
+				}
+			});
+
+			long flushMillis = System.currentTimeMillis() - startTime;
+			flushCount.incrementAndGet();
+			totalFlushMillis.addAndGet(flushMillis);
+			lastFlushMillis = flushMillis;
+			maxFlushMillis = Math.max(maxFlushMillis, flushMillis);
+
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Flushed objects", batch.size()).
+					addParameter("flush millis", flushMillis).
+					addParameter("queue depth", getQueueDepth()).publish();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeBatch(ObjectManager manager, List<Persistent> objects) {
+		try {
+			manager.writeObjects(objects);
+			writtenObjectCount.addAndGet(objects.size());
+		} catch (RuntimeException ex) {
+			failedFlushCount.incrementAndGet();
+			log.log(Level.WARNING, "write-behind batch failed, queueing " + objects.size() + " objects again", ex);
+			synchronized (this) {
+				for (Persistent object : objects) {
+					if (!pendingObjects.containsKey(object)) {
+						pendingObjects.put(object, manager);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A failing flush must not end the background thread.
+	 *
+	 * @methodtype command
+	 */
+	protected void flushSafely() {
+		try {
+			flush();
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, "write-behind flush failed", ex);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected Map<ObjectManager, List<Persistent>> groupByManager(Map<Persistent, ObjectManager> objects) {
+		Map<ObjectManager, List<Persistent>> result = new IdentityHashMap<ObjectManager, List<Persistent>>();
+		for (Map.Entry<Persistent, ObjectManager> entry : objects.entrySet()) {
+			List<Persistent> managerObjects = result.get(entry.getValue());
+			if (managerObjects == null) {
+				managerObjects = new ArrayList<Persistent>();
+				result.put(entry.getValue(), managerObjects);
+			}
+			managerObjects.add(entry.getKey());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * On App Engine only background threads may outlive a request.
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (SystemProperty.environment.value() != null) {
+			return ThreadManager.backgroundThreadFactory();
+		}
+
+		final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = defaultFactory.newThread(runnable);
+				result.setName("write-behind-" + result.getName());
+				result.setDaemon(true);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getQueueDepth() {
+		return pendingObjects.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWrittenObjectCount() {
+		return writtenObjectCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFailedFlushCount() {
+		return failedFlushCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLastFlushMillis() {
+		return lastFlushMillis;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxFlushMillis() {
+		return maxFlushMillis;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getAverageFlushMillis() {
+		long flushes = flushCount.get();
+		return (flushes == 0) ? 0.0 : (double) totalFlushMillis.get() / flushes;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "queue depth: " + getQueueDepth() + ", flushes: " + getFlushCount() + ", failed: " +
+				getFailedFlushCount() + ", objects written: " + getWrittenObjectCount() + ", last flush: " +
+				getLastFlushMillis() + "ms, max flush: " + getMaxFlushMillis() + "ms";
+	}
+
+}
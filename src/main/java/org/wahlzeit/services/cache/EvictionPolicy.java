@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+/**
+ * An EvictionPolicy decides which entry of an ObjectCache has to go once the cache exceeds its bounds.
+ * Policies keep their own bookkeeping of keys and are not thread-safe; the owning cache serializes all calls.
+ */
+public interface EvictionPolicy<K> {
+
+	/**
+	 * @methodtype command
+	 */
+	void recordInsertion(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void recordAccess(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void recordRemoval(K key);
+
+	/**
+	 * Selects the next entry to evict and drops it from the policy's bookkeeping. Returns null if the policy does
+	 * not know any key.
+	 *
+	 * @methodtype command
+	 */
+	K selectVictim();
+
+	/**
+	 * @methodtype command
+	 */
+	void clear();
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch that estimates how often a key has been seen recently. The sketch is four times as wide as
+ * the expected number of keys to keep the estimates of rare keys low.
+ * Counters saturate at 15 and are halved periodically, so old popularity fades away.
+ */
+public class FrequencySketch {
+
+	/**
+	 *
+	 */
+	public static final int MAX_FREQUENCY = 15;
+	public static final int SAMPLE_FACTOR = 10;
+
+	/**
+	 *
+	 */
+	protected static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	/**
+	 *
+	 */
+	protected byte[][] table;
+	protected int mask;
+	protected int sampleSize;
+	protected int additions = 0;
+
+	/**
+	 *
+	 */
+	public FrequencySketch(int expectedSize) {
+		int width = 16;
+		while (width < 4L * expectedSize && width < (1 << 24)) {
+			width <<= 1;
+		}
+
+		table = new byte[SEEDS.length][width];
+		mask = width - 1;
+		sampleSize = SAMPLE_FACTOR * width;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int result = MAX_FREQUENCY;
+		for (int row = 0; row < table.length; row++) {
+			result = Math.min(result, table[row][indexOf(hash, row)]);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int minimum = frequency(key);
+		if (minimum >= MAX_FREQUENCY) {
+			return;
+		}
+
+		// conservative update: only raise the counters that define the estimate
+		for (int row = 0; row < table.length; row++) {
+			int index = indexOf(hash, row);
+			if (table[row][index] == minimum) {
+				table[row][index]++;
+			}
+		}
+
+		if (++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		for (byte[] row : table) {
+			Arrays.fill(row, (byte) 0);
+		}
+		additions = 0;
+	}
+
+	/**
+	 * Halves all counters to age the recorded history.
+	 *
+	 * @methodtype command
+	 */
+	protected void reset() {
+		for (byte[] row : table) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = (byte) (row[i] >>> 1);
+			}
+		}
+		additions = additions / 2;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected int indexOf(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return ((int) h) & mask;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An ObjectCache is a thread-safe in-memory cache bounded by the number of its entries and by the summed weight of
+ * its values. Which entry has to go once a bound is exceeded is decided by a pluggable EvictionPolicy.
+ */
+public class ObjectCache<K, V> {
+
+	private static final Logger log = Logger.getLogger(ObjectCache.class.getName());
+
+	/**
+	 *
+	 */
+	protected final Map<K, V> entries = new HashMap<K, V>();
+	protected final Map<K, Long> weights = new HashMap<K, Long>();
+
+	/**
+	 *
+	 */
+	protected final int maxEntries;
+	protected final long maxWeight;
+	protected long totalWeight = 0;
+
+	/**
+	 *
+	 */
+	protected final EvictionPolicy<K> evictionPolicy;
+	protected final Weigher<? super V> weigher;
+	protected volatile EvictionListener<K, V> evictionListener = null;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hitCount = new AtomicLong();
+	protected final AtomicLong missCount = new AtomicLong();
+	protected final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public ObjectCache(int maxEntries, long maxWeight, EvictionPolicy<K> evictionPolicy,
+					   Weigher<? super V> weigher) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		if (maxWeight < 1) {
+			throw new IllegalArgumentException("maxWeight must be positive");
+		}
+		if (evictionPolicy == null) {
+			throw new IllegalArgumentException("EvictionPolicy evictionPolicy may not be null");
+		}
+		if (weigher == null) {
+			throw new IllegalArgumentException("Weigher weigher may not be null");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.evictionPolicy = evictionPolicy;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setEvictionListener(EvictionListener<K, V> newListener) {
+		evictionListener = newListener;
+	}
+
+	/**
+	 * Returns the cached value or null; counts as hit or miss.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized V get(K key) {
+		V result = entries.get(key);
+		if (result != null) {
+			hitCount.incrementAndGet();
+			evictionPolicy.recordAccess(key);
+		} else {
+			missCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean containsKey(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Adds or replaces the value for key and evicts entries until the cache is within its bounds again.
+	 *
+	 * @methodtype command
+	 */
+	public void put(K key, V value) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("cache does not hold null keys or values");
+		}
+
+		Map<K, V> evicted;
+		synchronized (this) {
+			if (doRemove(key) != null) {
+				evictionPolicy.recordRemoval(key);
+			}
+			evicted = doPut(key, value);
+		}
+
+		notifyEvicted(evicted);
+	}
+
+	/**
+	 * Adds the value unless the key already has one; then that value is returned, counting as an access, and the
+	 * cache is left as it is.
+	 *
+	 * @methodtype command
+	 */
+	public V putIfAbsent(K key, V value) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("cache does not hold null keys or values");
+		}
+
+		Map<K, V> evicted;
+		synchronized (this) {
+			V result = entries.get(key);
+			if (result != null) {
+				evictionPolicy.recordAccess(key);
+				return result;
+			}
+			evicted = doPut(key, value);
+		}
+
+		notifyEvicted(evicted);
+		return null;
+	}
+
+	/**
+	 * Needs to be called with the lock held and the key absent; returns the entries evicted to make room.
+	 *
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected Map<K, V> doPut(K key, V value) {
+		long weight = weigher.weigh(value);
+		entries.put(key, value);
+		weights.put(key, weight);
+		totalWeight += weight;
+		evictionPolicy.recordInsertion(key);
+
+		return evictIfNecessary();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized V remove(K key) {
+		V result = doRemove(key);
+		if (result != null) {
+			evictionPolicy.recordRemoval(key);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weights.clear();
+		totalWeight = 0;
+		evictionPolicy.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * @methodtype conversion Returns a snapshot of the keys
+	 */
+	public synchronized Set<K> keySet() {
+		return new HashSet<K>(entries.keySet());
+	}
+
+	/**
+	 * @methodtype conversion Returns a snapshot of the values
+	 */
+	public synchronized Collection<V> values() {
+		return new ArrayList<V>(entries.values());
+	}
+
+	/**
+	 * @methodtype conversion Returns a snapshot of the entries
+	 */
+	public synchronized Map<K, V> asMap() {
+		return new HashMap<K, V>(entries);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+		return (requests == 0) ? 1.0 : (double) hits / requests;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return "entries: " + size() + "/" + maxEntries + ", weight: " + getWeight() + "/" + maxWeight +
+				", hits: " + getHitCount() + ", misses: " + getMissCount() + ", evictions: " + getEvictionCount();
+	}
+
+	/**
+	 * Needs to be called while holding the lock.
+	 *
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected V doRemove(K key) {
+		V result = entries.remove(key);
+		if (result != null) {
+			totalWeight -= weights.remove(key);
+		}
+		return result;
+	}
+
+	/**
+	 * Needs to be called while holding the lock. If the eviction policy cannot tell a victim any more, all entries are
+	 * evicted, so that the eviction listener still learns about every one of them.
+	 *
+	 * @methodtype command
+	 */
+	protected Map<K, V> evictIfNecessary() {
+		Map<K, V> result = null;
+		while (entries.size() > maxEntries || (totalWeight > maxWeight && !entries.isEmpty())) {
+			K victim = evictionPolicy.selectVictim();
+			if (victim == null) {
+				log.severe("eviction policy lost track of cached entries, evicting all of them");
+				if (result == null) {
+					result = new HashMap<K, V>();
+				}
+				result.putAll(entries);
+				evictionCount.addAndGet(entries.size());
+				entries.clear();
+				weights.clear();
+				totalWeight = 0;
+				evictionPolicy.clear();
+				break;
+			}
+
+			V value = doRemove(victim);
+			if (value != null) {
+				if (result == null) {
+					result = new HashMap<K, V>();
+				}
+				result.put(victim, value);
+				evictionCount.incrementAndGet();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Called without holding the lock.
+	 *
+	 * @methodtype command
+	 */
+	protected void notifyEvicted(Map<K, V> evicted) {
+		EvictionListener<K, V> listener = evictionListener;
+		if (evicted == null || listener == null) {
+			return;
+		}
+
+		for (Map.Entry<K, V> entry : evicted.entrySet()) {
+			try {
+				listener.onEviction(entry.getKey(), entry.getValue());
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "eviction listener failed", ex);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A W-TinyLFU eviction policy. New entries enter a small LRU admission window. Entries that leave the window only
+ * make it into the main LRU region if they have been requested more often than the main region's eldest entry,
+ * which protects frequently viewed photos against a scan of one-time requests.
+ */
+public class TinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 * Share of the entries held in the admission window, in percent
+	 */
+	public static final int WINDOW_PERCENTAGE = 1;
+
+	/**
+	 *
+	 */
+	protected LinkedHashMap<K, Boolean> window = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+	protected LinkedHashMap<K, Boolean> main = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+	/**
+	 *
+	 */
+	protected int windowMaximum;
+	protected int mainMaximum;
+
+	/**
+	 *
+	 */
+	protected FrequencySketch sketch;
+
+	/**
+	 *
+	 */
+	public TinyLfuEvictionPolicy(int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize must be positive");
+		}
+
+		windowMaximum = Math.max(1, (int) ((long) maximumSize * WINDOW_PERCENTAGE / 100));
+		mainMaximum = Math.max(1, maximumSize - windowMaximum);
+		sketch = new FrequencySketch(maximumSize);
+	}
+
+	/**
+	 *
+	 */
+	public void recordInsertion(K key) {
+		sketch.increment(key);
+		window.put(key, Boolean.TRUE);
+		while (window.size() > windowMaximum && main.size() < mainMaximum) {
+			main.put(removeEldest(window), Boolean.TRUE);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void recordAccess(K key) {
+		sketch.increment(key);
+		if (window.get(key) == null) {
+			main.get(key);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void recordRemoval(K key) {
+		if (window.remove(key) == null) {
+			main.remove(key);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public K selectVictim() {
+		if (window.size() > windowMaximum && !main.isEmpty()) {
+			K candidate = eldest(window);
+			K victim = eldest(main);
+			window.remove(candidate);
+			if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+				main.remove(victim);
+				main.put(candidate, Boolean.TRUE);
+				return victim;
+			}
+			return candidate;
+		}
+
+		if (!main.isEmpty() && (main.size() >= mainMaximum || window.isEmpty())) {
+			return removeEldest(main);
+		}
+
+		return removeEldest(window);
+	}
+
+	/**
+	 *
+	 */
+	public void clear() {
+		window.clear();
+		main.clear();
+		sketch.clear();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected K eldest(LinkedHashMap<K, Boolean> region) {
+		Iterator<K> i = region.keySet().iterator();
+		return i.hasNext() ? i.next() : null;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected K removeEldest(LinkedHashMap<K, Boolean> region) {
+		K result = eldest(region);
+		if (result != null) {
+			region.remove(result);
+		}
+		return result;
+	}
+
+}
@@ -23,6 +23,7 @@ package org.wahlzeit.services.mailing;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -53,11 +54,11 @@ public class LoggingEmailService implements EmailService {
 		String toString = (to == null) ? "null" : to.asString();
 		String subjectString = (subject == null) ? "null" : subject;
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("Send E-Mail").
 				addParameter("from", fromString).
 				addParameter("to", toString).
-				addParameter("subject", subjectString).toString());
+				addParameter("subject", subjectString).publish();
 
 		decorated.sendEmail(from, to, subject, body);
 	}
@@ -87,12 +88,12 @@ public class LoggingEmailService implements EmailService {
 		String bccString = (bcc == null) ? "null" : bcc.asString();
 		String subjectString = (subject == null) ? "null" : subject;
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("Send E-Mail").
 				addParameter("from", fromString).
 				addParameter("to", toString).
 				addParameter("bcc", bccString).
-				addParameter("subject", subjectString).toString());
+				addParameter("subject", subjectString).publish();
 
 		decorated.sendEmail(from, to, bcc, subject, body);
 	}
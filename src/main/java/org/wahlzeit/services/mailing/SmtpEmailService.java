@@ -34,6 +34,7 @@ import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -91,7 +92,7 @@ public class SmtpEmailService extends AbstractEmailService {
 			msg.setSubject(subject);
 			msg.setContent(createMultipart(body));
 		} catch (MessagingException e) {
-			log.warning(LogBuilder.createSystemMessage().addException("failed to create email", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("failed to create email", e).publish();
 			throw new MailingException(e.getMessage());
 		}
 		return msg;
@@ -118,9 +119,9 @@ public class SmtpEmailService extends AbstractEmailService {
 	protected void doSendEmail(Message msg) throws MailingException {
 		try {
 			Transport.send(msg);
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addMessage("email send").
-					addParameter("subject", msg.getSubject()).toString());
+					addParameter("subject", msg.getSubject()).publish();
 		} catch (MessagingException ex) {
 			throw new MailingException("Sending email failed", ex);
 		}
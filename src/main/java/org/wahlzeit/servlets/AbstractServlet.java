@@ -21,7 +21,9 @@
 package org.wahlzeit.servlets;
 
 import org.wahlzeit.main.ServiceMain;
+import org.wahlzeit.model.IdAllocator;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.BufferPool;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
@@ -38,6 +40,7 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -52,6 +55,16 @@ public abstract class AbstractServlet extends HttpServlet {
 	 */
 	protected static int lastSessionId = 0; // system and agent are named differently
 
+	/**
+	 *
+	 */
+	protected static final IdAllocator sessionIdAllocator = new IdAllocator(IdAllocator.Counter.SESSION);
+
+	/**
+	 * Buffers for writing pages; sized between 4KB and 256KB to fit recent pages
+	 */
+	protected static final BufferPool pageBufferPool = new BufferPool(4 * 1024, 256 * 1024, 64);
+
 	/**
 	 *
 	 */
@@ -69,8 +82,14 @@ public abstract class AbstractServlet extends HttpServlet {
 	/**
 	 *
 	 */
-	public static synchronized int getNextSessionId() {
-		return ++lastSessionId;
+	public static int getNextSessionId() {
+		int result = sessionIdAllocator.getNextId();
+		synchronized (AbstractServlet.class) {
+			if (result > lastSessionId) {
+				lastSessionId = result;
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -170,26 +189,53 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).publish();
 		response.sendRedirect(newTarget);
 	}
 
 	/**
 	 *
 	 */
-	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
+	protected void configureResponse(Session ctx, HttpServletRequest request, HttpServletResponse response,
+									 WebPart result) throws IOException {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", processingTime).publish();
 
-		response.setContentType("text/html");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/html; charset=UTF-8");
+		response.setHeader("Vary", "Accept-Encoding");
 
-		PrintWriter out = response.getWriter();
-		result.writeOn(out);
-		out.close();
+		PageOutputStream out = new PageOutputStream(response, isGzipAccepted(request), pageBufferPool);
+		try {
+			result.writeOn(out);
+		} finally {
+			out.close();
+		}
+	}
 
-		response.setStatus(HttpServletResponse.SC_OK);
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isGzipAccepted(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null) {
+			return false;
+		}
+
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			if ("gzip".equalsIgnoreCase(parameters[0].trim())) {
+				for (int i = 1; i < parameters.length; i++) {
+					if (parameters[i].trim().matches("q=0(\\.0*)?")) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -210,16 +256,16 @@ public abstract class AbstractServlet extends HttpServlet {
 	 *
 	 */
 	protected String getRequestArgsAsString(UserSession us, Map args) {
-		StringBuffer result = new StringBuffer(96);
+		StringBuilder result = new StringBuilder(96).append('[');
 		for (Iterator i = args.keySet().iterator(); i.hasNext(); ) {
 			String key = i.next().toString();
 			String value = us.getAsString(args, key);
-			result.append(key + "=" + value);
+			result.append(key).append('=').append(value);
 			if (i.hasNext()) {
 				result.append("; ");
 			}
 		}
-		return "[" + result.toString() + "]";
+		return result.append(']').toString();
 	}
 
 }
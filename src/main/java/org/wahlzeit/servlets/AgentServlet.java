@@ -30,6 +30,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -55,13 +56,14 @@ public class AgentServlet extends HttpServlet {
 		int nameStart = requestUri.lastIndexOf("/") + 1;
 		int nameEnd = requestUri.length();
 		String agentName = requestUri.substring(nameStart, nameEnd);
-		log.config(LogBuilder.createSystemMessage().addParameter("agent name", agentName).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("agent name", agentName).publish();
 
 		try {
 			AgentManager.getInstance().startAgent(agentName);
 			response.setStatus(200);
 		} catch (Exception e) {
-			log.warning(LogBuilder.createSystemMessage().addException("Problem when starting the agent", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Problem when starting the agent", e).publish();
 			response.setStatus(299);
 		}
 	}
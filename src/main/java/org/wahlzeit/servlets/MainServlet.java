@@ -31,6 +31,7 @@ import org.wahlzeit.handlers.PartUtil;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
@@ -46,6 +47,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -75,11 +77,11 @@ public class MainServlet extends AbstractServlet {
 		} else {
 			link = PartUtil.NULL_FORM_NAME;
 		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).publish();
 
 		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("POST arguments", getRequestArgsAsString(us, args)).publish();
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
@@ -99,30 +101,30 @@ public class MainServlet extends AbstractServlet {
 		long startTime = System.currentTimeMillis();
 
 		UserSession us = (UserSession) SessionManager.getThreadLocalSession();
-		String link = request.getRequestURI();
-		int linkStart = link.lastIndexOf("/") + 1;
-		int linkEnd = link.indexOf(".html");
+		String requestUri = request.getRequestURI();
+		int linkStart = requestUri.lastIndexOf("/") + 1;
+		int linkEnd = requestUri.indexOf(".html");
 		if (linkEnd == -1) {
-			linkEnd = link.length();
+			linkEnd = requestUri.length();
 		}
 
-		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+		String link = getLink(requestUri, linkStart, linkEnd);
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", requestUri).publish();
 
 
 		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
 		String newLink = PartUtil.DEFAULT_PAGE_NAME;
 		if (handler != null) {
 			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("GET arguments", getRequestArgsAsString(us, args)).publish();
 			newLink = handler.handleGet(us, link, args);
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
 			WebPart result = handler.makeWebPart(us);
 			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
+			configureResponse(us, request, response, result);
 			us.clearSavedArgs(); // saved args go from post to next get
 			us.resetProcessingTime();
 		} else {
@@ -132,6 +134,24 @@ public class MainServlet extends AbstractServlet {
 		SessionManager.dropThreadLocalSession();
 	}
 
+	/**
+	 * Photo links are looked up right in the request URI and mapped to the interned id string, so showing a photo
+	 * does not copy its id out of the URI.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String getLink(String requestUri, int linkStart, int linkEnd) {
+		PhotoId photoId = PhotoId.getIdFromChars(requestUri, linkStart, linkEnd);
+		if (!photoId.isNullId()) {
+			String result = photoId.asString();
+			if (result.length() == linkEnd - linkStart && requestUri.startsWith(result, linkStart)) {
+				return result;
+			}
+		}
+
+		return requestUri.substring(linkStart, linkEnd);
+	}
+
 	/**
 	 *
 	 */
@@ -166,15 +186,16 @@ public class MainServlet extends AbstractServlet {
 					User user = (User) us.getClient();
 					user.setUploadedImage(image);
 					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
+							addParameter("Uploaded image", filename).publish();
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).publish();
 				}
 			}
 		} catch (Exception ex) {
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.services.BufferPool;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A PageOutputStream writes a page to the servlet output stream through a pooled buffer. A page that fits the
+ * buffer goes out in one piece with its Content-Length set; otherwise it is streamed. If compression is requested,
+ * the page is gzipped, and flushing pushes out what has been compressed so far.
+ */
+public class PageOutputStream extends OutputStream {
+
+	/**
+	 *
+	 */
+	protected static final int GZIP_BUFFER_SIZE = 4 * 1024;
+
+	/**
+	 *
+	 */
+	protected final HttpServletResponse response;
+	protected final boolean isToCompress;
+	protected final BufferPool bufferPool;
+
+	/**
+	 *
+	 */
+	protected byte[] buffer;
+	protected int count = 0;
+	protected long noDrainedBytes = 0;
+
+	/**
+	 * Opened on first drain; from then on the response is committed
+	 */
+	protected OutputStream out = null;
+
+	/**
+	 *
+	 */
+	public PageOutputStream(HttpServletResponse response, boolean isToCompress, BufferPool bufferPool) {
+		this.response = response;
+		this.isToCompress = isToCompress;
+		this.bufferPool = bufferPool;
+		this.buffer = bufferPool.acquire();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void write(int b) throws IOException {
+		assertIsOpen();
+		if (count == buffer.length) {
+			drain();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	/**
+	 * Large writes bypass the buffer.
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		assertIsOpen();
+		if (length > buffer.length - count) {
+			drain();
+			if (length >= buffer.length) {
+				noDrainedBytes += length;
+				getOut().write(bytes, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+
+	/**
+	 * Sends what has been written so far to the client once the page is streamed. Before that, the flush is held
+	 * back: the page may still fit the buffer, and then sending it in one piece with its Content-Length is worth
+	 * more than sending its head early. The rest of a page is written from memory right after its head anyway.
+	 */
+	@Override
+	public void flush() throws IOException {
+		assertIsOpen();
+		if (isCommitted()) {
+			drain();
+			out.flush();
+		}
+	}
+
+	/**
+	 * Returns the buffer to the pool, even if writing the rest of the page fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+
+		try {
+			if (out == null && !isToCompress) {
+				response.setContentLength(count);
+			}
+			drain();
+			OutputStream result = getOut();
+			if (isToCompress) {
+				((GZIPOutputStream) result).finish();
+			}
+			result.close();
+		} finally {
+			bufferPool.release(buffer, getPageSize());
+			buffer = null;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getPageSize() {
+		return noDrainedBytes + count;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isCommitted() {
+		return out != null;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void drain() throws IOException {
+		if (count > 0) {
+			getOut().write(buffer, 0, count);
+			noDrainedBytes += count;
+			count = 0;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected OutputStream getOut() throws IOException {
+		if (out == null) {
+			if (isToCompress) {
+				response.setHeader("Content-Encoding", "gzip");
+				out = new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE, true);
+			} else {
+				out = response.getOutputStream();
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("page output stream has been closed");
+		}
+	}
+
+}
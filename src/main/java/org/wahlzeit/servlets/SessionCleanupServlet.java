@@ -13,6 +13,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -42,8 +43,8 @@ public class SessionCleanupServlet extends HttpServlet {
 				kind(SESSION_ENTITY_TYPE).
 				filter(EXPIRES_PROP + " <", System.currentTimeMillis()).list();
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("number of old sessions to delete from datastore", killList.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("number of old sessions to delete from datastore", killList.size()).publish();
 
 		try {
 			for (Object o : killList) {
@@ -51,9 +52,9 @@ public class SessionCleanupServlet extends HttpServlet {
 				Key key = httpSessionEntity.getKey();
 				// GAE does not use session id as key name, instead "_ahs<sessionId>"
 				String sessionId = key.getName().substring(4);
-				log.config(LogBuilder.createSystemMessage().
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
 						addAction("delete session").
-						addParameter("session id", sessionId).toString());
+						addParameter("session id", sessionId).publish();
 				Client client = UserManager.getInstance().getClientByHttpSessionId(sessionId);
 				if (client != null && client instanceof Guest) {
 					UserManager.getInstance().deleteClient(client);
@@ -62,8 +63,8 @@ public class SessionCleanupServlet extends HttpServlet {
 			}
 			response.setStatus(HttpServletResponse.SC_OK);
 		} catch (Exception e) {
-			log.config(LogBuilder.createSystemMessage().
-					addException("problem when deleting session and guest", e).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addException("problem when deleting session and guest", e).publish();
 			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
 	}
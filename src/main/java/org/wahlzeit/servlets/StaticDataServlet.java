@@ -3,15 +3,18 @@ package org.wahlzeit.servlets;
 import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.StoredImage;
 import org.wahlzeit.services.LogBuilder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -26,6 +29,31 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * A scaled image of a photo never changes, so clients and proxies may keep it for a year without asking again
+	 */
+	public static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+
+	/**
+	 * Sent instead if the type of an image cannot be told, so that a wrong type is not kept for a year
+	 */
+	public static final String CACHE_CONTROL_REVALIDATE = "no-cache";
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_CONTENT_TYPE = "image/jpeg";
+
+	/**
+	 * Number of leading bytes of an image needed to tell its type
+	 */
+	protected static final int IMAGE_SIGNATURE_LENGTH = 12;
+
+	/**
+	 * Returned by getRequestedRange if the requested range lies outside of the image
+	 */
+	protected static final long[] UNSATISFIABLE_RANGE = new long[0];
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -33,59 +61,284 @@ public class StaticDataServlet extends AbstractServlet {
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).publish();
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
-				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
-					response.setStatus(HttpStatus.SC_NOT_FOUND);
-				}
+				doGetImage(request, response, photoId, size);
 			} else {
-				log.warning(LogBuilder.createSystemMessage().
-						addMessage("unimplemented static resource type has been requested").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("unimplemented static resource type has been requested").publish();
 				response.setStatus(HttpStatus.SC_NOT_IMPLEMENTED);
 			}
 
 		} catch (Exception e) {
-			log.severe(LogBuilder.createSystemMessage().addException("Problem when loading image", e).toString());
+			LogBuilder.createSystemMessage(log, Level.SEVERE).addException("Problem when loading image", e).publish();
 		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Answers conditional requests with 304 Not Modified where possible and sends the image otherwise.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
+	protected void doGetImage(HttpServletRequest request, HttpServletResponse response, String photoId, int size)
+			throws IOException {
+		String eTag = getETag(photoId, size);
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null && isMatchingETag(ifNoneMatch, eTag)) {
+			setCachingHeaders(response, eTag);
+			response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+			return;
+		}
+
+		// loading a photo just for its headers would cost more than streaming its image from the storage
+		Photo photo = PhotoManager.getInstance().getCachedPhoto(PhotoId.getIdFromString(photoId));
+		if (ifNoneMatch == null && photo != null) {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			// HTTP dates have a resolution of seconds
+			if (ifModifiedSince >= 0 && photo.getCreationTime() / 1000 <= ifModifiedSince / 1000) {
+				setCachingHeaders(response, eTag);
+				response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+				return;
+			}
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
+
+		StoredImage image = openImage(photo, photoId, size);
+		if (image != null) {
 			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				setCachingHeaders(response, eTag);
+				response.setHeader("Accept-Ranges", "bytes");
+				String contentType = getContentType(photo, image);
+				if (contentType == null) {
+					contentType = DEFAULT_CONTENT_TYPE;
+					response.setHeader("Cache-Control", CACHE_CONTROL_REVALIDATE);
+				}
+				response.setContentType(contentType);
+				if (photo != null) {
+					response.setDateHeader("Last-Modified", photo.getCreationTime());
+				}
+
+				long length = image.getLength();
+				String ifRange = request.getHeader("If-Range");
+				long[] range = null;
+				if (ifRange == null || ifRange.trim().equals(eTag)) {
+					range = getRequestedRange(request.getHeader("Range"), length);
+				}
+
+				if (range == null) {
+					response.setStatus(HttpStatus.SC_OK);
+					response.setContentLength((int) length);
+					image.transferTo(response.getOutputStream());
+				} else if (range == UNSATISFIABLE_RANGE) {
+					response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					response.setHeader("Content-Range", "bytes */" + length);
+				} else {
+					long count = range[1] - range[0] + 1;
+					response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+					response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+					response.setContentLength((int) count);
+					image.transferTo(range[0], count, response.getOutputStream());
+				}
+				response.getOutputStream().flush();
+			} finally {
+				image.close();
+			}
+		} else {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("image not found").publish();
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * A strong ETag can be derived from photo id and size alone, as the image for these never changes.
+	 */
+	protected String getETag(String photoId, int size) {
+		return "\"" + photoId + "-" + size + "\"";
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Checks an If-None-Match header value, a list of entity tags or "*", against eTag. If-None-Match uses the weak
+	 * comparison, so a W/ prefix is ignored.
+	 */
+	protected boolean isMatchingETag(String ifNoneMatch, String eTag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
 			}
 		}
-		return image;
+		return false;
 	}
-}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Parses a Range header for a single byte range and returns its first and last position. Returns null if the whole
+	 * image is to be sent, i.e. if there is no Range header or one that is malformed or asks for several ranges, and
+	 * UNSATISFIABLE_RANGE if the range does not overlap the image.
+	 */
+	protected long[] getRequestedRange(String rangeHeader, long length) {
+		if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+			return null;
+		}
+
+		String rangeSpec = rangeHeader.substring("bytes=".length()).trim();
+		int dash = rangeSpec.indexOf('-');
+		if (dash < 0 || rangeSpec.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String first = rangeSpec.substring(0, dash).trim();
+		String last = rangeSpec.substring(dash + 1).trim();
+		// positions are plain digits, and a suffix range needs its length
+		if ((!first.isEmpty() && !isDigits(first)) || (!last.isEmpty() && !isDigits(last)) ||
+				(first.isEmpty() && last.isEmpty())) {
+			return null;
+		}
+
+		try {
+			if (first.isEmpty()) {
+				// suffix range, e.g. "bytes=-500" for the last 500 bytes
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength == 0 || length == 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				return new long[] {Math.max(0, length - suffixLength), length - 1};
+			}
+
+			long firstPos = Long.parseLong(first);
+			if (!last.isEmpty() && Long.parseLong(last) < firstPos) {
+				return null;
+			} else if (firstPos >= length) {
+				return UNSATISFIABLE_RANGE;
+			}
+			long lastPos = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			return new long[] {firstPos, lastPos};
+		} catch (NumberFormatException e) {
+			// too many digits
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isDigits(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setCachingHeaders(HttpServletResponse response, String eTag) {
+		response.setHeader("ETag", eTag);
+		response.setHeader("Cache-Control", CACHE_CONTROL_IMMUTABLE);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Takes the content type from the ending of the photo if it is in memory, and from the first bytes of the image
+	 * otherwise, as loading the photo would cost more than that. Returns null if the type cannot be told.
+	 */
+	protected String getContentType(Photo photo, StoredImage image) throws IOException {
+		if (photo != null) {
+			String result = getServletContext().getMimeType("image." + photo.getEnding());
+			if (result != null) {
+				return result;
+			}
+		}
+
+		ByteArrayOutputStream signature = new ByteArrayOutputStream(IMAGE_SIGNATURE_LENGTH);
+		image.transferTo(0, Math.min(IMAGE_SIGNATURE_LENGTH, image.getLength()), signature);
+		return getImageContentType(signature.toByteArray());
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Tells the type of an image by the signature at its start; returns null for unknown types.
+	 */
+	protected static String getImageContentType(byte[] signature) {
+		if (startsWith(signature, 0xFF, 0xD8, 0xFF)) {
+			return "image/jpeg";
+		} else if (startsWith(signature, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n')) {
+			return "image/png";
+		} else if (startsWith(signature, 'G', 'I', 'F', '8')) {
+			return "image/gif";
+		} else if (startsWith(signature, 'R', 'I', 'F', 'F') && signature.length >= 12 && signature[8] == 'W' &&
+				signature[9] == 'E' && signature[10] == 'B' && signature[11] == 'P') {
+			return "image/webp";
+		} else if (startsWith(signature, 'B', 'M')) {
+			return "image/bmp";
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean startsWith(byte[] bytes, int... prefix) {
+		if (bytes.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if ((bytes[i] & 0xFF) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Opens the image data either from the photo in memory or from the <@link>ImageStorage</@link>, which can stream it
+	 * without loading the photo. If image does not exist, null is returned.
+	 */
+	private StoredImage openImage(Photo photo, String photoId, int size) throws IOException {
+		if (photo != null) {
+			Image image = photo.getImage(PhotoSize.getFromInt(size));
+			if (image != null) {
+				return StoredImage.fromBytes(image.getImageData());
+			}
+		}
+
+		// if not in memory stream it from the storage
+		StoredImage result = ImageStorage.getInstance().openImage(photoId, size);
+		if (result != null) {
+			return result;
+		}
+
+		// sizes are created on first request when scaling lazily
+		if (photo == null) {
+			photo = PhotoManager.getInstance().getPhoto(photoId);
+		}
+		if (photo != null) {
+			Image image = PhotoManager.getInstance().getScaledImage(photo, PhotoSize.getFromInt(size));
+			if (image != null) {
+				return StoredImage.fromBytes(image.getImageData());
+			}
+		}
+		return null;
+	}
+}
@@ -21,9 +21,13 @@
 package org.wahlzeit.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 
 /**
- * A set of utility functions for HTML formatting.
+ * A set of utility functions for HTML formatting. The mask and write functions escape straight into a Writer or
+ * UTF-8 into an OutputStream; strings without special characters are returned or written as they are.
  */
 public class HtmlUtil {
 
@@ -34,6 +38,12 @@ public class HtmlUtil {
 	public static final String CHECKBOX_CHECK = "CHECKED";
 	public static final String SELECT_SELECTED = "SELECTED";
 
+	/**
+	 *
+	 */
+	protected static final int BYTE_BUFFER_SIZE = 1024;
+	protected static final ThreadLocal<byte[]> byteBuffers = new ThreadLocal<byte[]>();
+
 	/**
 	 *
 	 */
@@ -45,7 +55,7 @@ public class HtmlUtil {
 	 *
 	 */
 	public static String asBold(String html) {
-		return "<b>" + html + "</b>";
+		return StringUtil.getStringBuilder().append("<b>").append(html).append("</b>").toString();
 	}
 
 	/**
@@ -80,51 +90,191 @@ public class HtmlUtil {
 	 *
 	 */
 	public static String asHref(String link, String body) {
-		return "<a href=\"" + link + "\" rel=\"nofollow\">" + body + "</a>";
+		StringBuilder result = StringUtil.getStringBuilder();
+		result.append("<a href=\"").append(link).append("\" rel=\"nofollow\">").append(body).append("</a>");
+		return result.toString();
 	}
 
 	/**
 	 *
 	 */
 	public static String asImg(String link) {
-		return "<img src=\"" + link + "\" />";
+		return StringUtil.getStringBuilder().append("<img src=\"").append(link).append("\" />").toString();
 	}
 
 	/**
 	 *
 	 */
 	public static String asImg(String link, int width, int height) {
-		return "<img src=\"" + link + "\" width=\"" + width + "\" height=\"" + height + "\" />";
+		StringBuilder result = StringUtil.getStringBuilder();
+		result.append("<img src=\"").append(link);
+		result.append("\" width=\"").append(width).append("\" height=\"").append(height).append("\" />");
+		return result.toString();
 	}
 
 	/**
 	 *
 	 */
 	public static String asP(String value) {
-		return "<p>" + value + "</p>";
+		return StringUtil.getStringBuilder().append("<p>").append(value).append("</p>").toString();
 	}
 
 	/**
-	 *
+	 * Returns s itself if it contains no character to mask.
 	 */
 	public static String maskForWeb(String s) {
-		StringBuffer result = new StringBuffer(s.length() + 16);
-		for (int i = 0; i < s.length(); i++) {
+		int i = indexOfSpecialChar(s, 0);
+		if (i == -1) {
+			return s;
+		}
+
+		StringBuilder result = StringUtil.getStringBuilder();
+		int start = 0;
+		for (; i != -1; i = indexOfSpecialChar(s, start)) {
+			result.append(s, start, i).append(asEntity(s.charAt(i)));
+			start = i + 1;
+		}
+		result.append(s, start, s.length());
+
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public static void maskForWeb(CharSequence s, Appendable out) throws IOException {
+		int start = 0;
+		for (int i = indexOfSpecialChar(s, 0); i != -1; i = indexOfSpecialChar(s, start)) {
+			out.append(s, start, i).append(asEntity(s.charAt(i)));
+			start = i + 1;
+		}
+		out.append(s, start, s.length());
+	}
+
+	/**
+	 * Writes the unmasked runs of s without copying them.
+	 *
+	 * @methodtype command
+	 */
+	public static void maskForWeb(String s, Writer out) throws IOException {
+		int start = 0;
+		for (int i = indexOfSpecialChar(s, 0); i != -1; i = indexOfSpecialChar(s, start)) {
+			out.write(s, start, i - start);
+			out.write(asEntity(s.charAt(i)));
+			start = i + 1;
+		}
+		out.write(s, start, s.length() - start);
+	}
+
+	/**
+	 * Writes s masked and UTF-8 encoded.
+	 *
+	 * @methodtype command
+	 */
+	public static void maskForWeb(String s, OutputStream out) throws IOException {
+		writeOn(s, out, true);
+	}
+
+	/**
+	 * Writes s UTF-8 encoded, like s.getBytes(UTF_8) would encode it, but without allocating.
+	 *
+	 * @methodtype command
+	 */
+	public static void writeUtf8(String s, OutputStream out) throws IOException {
+		writeOn(s, out, false);
+	}
+
+	/**
+	 * @methodtype query
+	 */
+	public static int indexOfSpecialChar(CharSequence s, int start) {
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c <= '>' && isSpecialChar(c)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean isSpecialChar(char c) {
+		return (c == '&') || (c == '"') || (c == '<') || (c == '>');
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asEntity(char c) {
+		switch (c) {
+			case '&':
+				return "&amp;";
+			case '"':
+				return "&quot;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Encodes s through a thread-local buffer; characters are in the same order and lone surrogates become '?', as
+	 * with String.getBytes().
+	 *
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected static void writeOn(String s, OutputStream out, boolean isToMask) throws IOException {
+		byte[] buffer = byteBuffers.get();
+		if (buffer == null) {
+			buffer = new byte[BYTE_BUFFER_SIZE];
+			byteBuffers.set(buffer);
+		}
+
+		int length = s.length();
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			if (pos > buffer.length - 6) {
+				out.write(buffer, 0, pos);
+				pos = 0;
+			}
+
 			char c = s.charAt(i);
-			if (c == '&') {
-				result.append("&amp;");
-			} else if (c == '"') {
-				result.append("&quot;");
-			} else if (c == '<') {
-				result.append("&lt;");
-			} else if (c == '>') {
-				result.append("&gt;");
+			if (c < 0x80) {
+				String entity = isToMask ? asEntity(c) : null;
+				if (entity == null) {
+					buffer[pos++] = (byte) c;
+				} else {
+					for (int j = 0; j < entity.length(); j++) {
+						buffer[pos++] = (byte) entity.charAt(j);
+					}
+				}
+			} else if (c < 0x800) {
+				buffer[pos++] = (byte) (0xc0 | (c >> 6));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (!Character.isSurrogate(c)) {
+				buffer[pos++] = (byte) (0xe0 | (c >> 12));
+				buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+				buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
 			} else {
-				result.append(c);
+				buffer[pos++] = (byte) '?';
 			}
 		}
 
-		return result.toString();
+		if (pos > 0) {
+			out.write(buffer, 0, pos);
+		}
 	}
 
 }
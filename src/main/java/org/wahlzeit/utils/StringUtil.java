@@ -36,6 +36,16 @@ public class StringUtil {
 	 */
 	private static final String URL_SEPARATOR = "/";
 
+	/**
+	 * Builders growing beyond this capacity are not kept for reuse
+	 */
+	protected static final int MAX_BUILDER_CAPACITY = 4096;
+
+	/**
+	 *
+	 */
+	protected static final ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>();
+
 	/**
 	 *
 	 */
@@ -125,7 +135,11 @@ public class StringUtil {
 	public final static String asStringInSeconds(long duration) {
 		long seconds = duration / 1000;
 		long milliSeconds = duration - (seconds * 1000);
-		return String.valueOf(seconds) + "." + asThreeDigits(milliSeconds);
+		StringBuilder result = getStringBuilder().append(seconds).append('.');
+		if (milliSeconds < 100) {
+			result.append(milliSeconds < 10 ? "00" : "0");
+		}
+		return result.append(milliSeconds).toString();
 	}
 
 	/**
@@ -169,4 +183,20 @@ public class StringUtil {
 		}
 	}
 
+	/**
+	 * Returns the empty builder of the current thread. StringUtil, HtmlUtil and Tags build their strings in it, so it
+	 * must not be held while calling them.
+	 *
+	 * @methodtype get
+	 */
+	public static StringBuilder getStringBuilder() {
+		StringBuilder result = builders.get();
+		if (result == null || result.capacity() > MAX_BUILDER_CAPACITY) {
+			result = new StringBuilder(256);
+			builders.set(result);
+		}
+		result.setLength(0);
+		return result;
+	}
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.utils.HtmlUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A CompiledTemplate is the render-ready form of a WebPartTemplate. The static text between slots is encoded to UTF-8
+ * once, and every slot refers to its key by index, so writing a WebPart is a sequence of byte array copies with the
+ * values filled in between.
+ */
+public class CompiledTemplate {
+
+	/**
+	 * chunks[i] precedes slot i; the last chunk follows the last slot
+	 */
+	protected final byte[][] chunks;
+
+	/**
+	 * Key index of each slot
+	 */
+	protected final int[] slotKeys;
+
+	/**
+	 * Distinct keys and their indexes
+	 */
+	protected final String[] keys;
+	protected final Map<String, Integer> keyIndexes = new HashMap<String, Integer>();
+
+	/**
+	 * Pages are flushed right after their head, so browsers can fetch style sheets and scripts while the body is
+	 * still being written; the stream decides whether flushing is worth it. headChunk is -1 for templates without
+	 * a head
+	 */
+	public static final String HEAD_END = "</head>";
+	protected int headChunk = -1;
+	protected int headChunkEnd = 0;
+
+	/**
+	 *
+	 */
+	public CompiledTemplate(WebPartTemplate template) {
+		String source = template.asString();
+		String[] slotNames = template.getKeys();
+		int[] slots = template.getSlots();
+
+		chunks = new byte[slots.length + 1][];
+		slotKeys = new int[slots.length];
+
+		int start = 0;
+		for (int i = 0; i < slots.length; i++) {
+			chunks[i] = source.substring(start, slots[i]).getBytes(StandardCharsets.UTF_8);
+			Integer keyIndex = keyIndexes.get(slotNames[i]);
+			if (keyIndex == null) {
+				keyIndex = keyIndexes.size();
+				keyIndexes.put(slotNames[i], keyIndex);
+			}
+			slotKeys[i] = keyIndex;
+			start = slots[i];
+		}
+		chunks[slots.length] = source.substring(start).getBytes(StandardCharsets.UTF_8);
+
+		int headEnd = source.indexOf(HEAD_END);
+		if (headEnd != -1) {
+			headEnd += HEAD_END.length();
+			int chunkStart = 0;
+			for (headChunk = 0; headChunk < slots.length && slots[headChunk] < headEnd; headChunk++) {
+				chunkStart = slots[headChunk];
+			}
+			headChunkEnd = source.substring(chunkStart, headEnd).getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		keys = new String[keyIndexes.size()];
+		for (Map.Entry<String, Integer> entry : keyIndexes.entrySet()) {
+			keys[entry.getValue()] = entry.getKey();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoKeys() {
+		return keys.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * Returns the index of the key or -1 if the template has no slot for it.
+	 *
+	 * @methodtype get
+	 */
+	public int getKeyIndex(String key) {
+		Integer result = keyIndexes.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * Writes the template with the values, indexed like the keys, filled into the slots.
+	 *
+	 * @methodtype command
+	 */
+	public void writeOn(OutputStream out, Object[] values) throws IOException {
+		for (int i = 0; i < slotKeys.length; i++) {
+			writeChunkOn(out, i);
+			writeValueOn(out, values[slotKeys[i]]);
+		}
+		writeChunkOn(out, slotKeys.length);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected void writeChunkOn(OutputStream out, int index) throws IOException {
+		byte[] chunk = chunks[index];
+		if (index == headChunk) {
+			out.write(chunk, 0, headChunkEnd);
+			out.flush();
+			out.write(chunk, headChunkEnd, chunk.length - headChunkEnd);
+		} else {
+			out.write(chunk);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperty primitive
+	 */
+	protected static void writeValueOn(OutputStream out, Object value) throws IOException {
+		if (value instanceof Writable) {
+			((Writable) value).writeOn(out);
+		} else if (value != null) {
+			HtmlUtil.writeUtf8(value.toString(), out);
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.cache.LruEvictionPolicy;
+import org.wahlzeit.services.cache.ObjectCache;
+import org.wahlzeit.services.cache.Weigher;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FragmentCache holds rendered parts that are the same for all sessions, keyed by language, template, photo id
+ * and version. Callers derive the version from the data objects the part shows; as every change raises their
+ * versions, outdated fragments are never hit again and age out of the cache.
+ */
+public class FragmentCache {
+
+	/**
+	 *
+	 */
+	private static final Logger log = Logger.getLogger(FragmentCache.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final FragmentCache instance = new FragmentCache();
+
+	/**
+	 * Bounds of the cache: number of fragments and their summed size in bytes
+	 */
+	public static final int MAX_FRAGMENTS = 4096;
+	public static final long MAX_BYTES = 8 * 1024 * 1024;
+
+	/**
+	 * Photo id of fragments that show no photo
+	 */
+	public static final int NO_PHOTO_ID = 0;
+
+	/**
+	 *
+	 */
+	protected final ObjectCache<Key, RenderedFragment> fragments;
+
+	/**
+	 *
+	 */
+	public static FragmentCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 *
+	 */
+	protected FragmentCache() {
+		this(MAX_FRAGMENTS, MAX_BYTES);
+	}
+
+	/**
+	 *
+	 */
+	protected FragmentCache(int maxFragments, long maxBytes) {
+		fragments = new ObjectCache<Key, RenderedFragment>(maxFragments, maxBytes, new LruEvictionPolicy<Key>(),
+				new Weigher<RenderedFragment>() {
+					@Override
+					public long weigh(RenderedFragment value) {
+						return value.getLength();
+					}
+				});
+	}
+
+	/**
+	 * Returns the cached fragment or renders and caches the part supplied by maker. If rendering fails, the part is returned
+	 * unrendered, so the error shows up when writing the page as it did without the cache.
+	 *
+	 * @methodtype get
+	 */
+	public Writable getFragment(String language, String templateName, int photoId, long version,
+								Supplier<? extends Writable> maker) {
+		Key key = new Key(language, templateName, photoId, version);
+		RenderedFragment result = fragments.get(key);
+		if (result != null) {
+			return result;
+		}
+
+		Writable part = maker.get();
+		try {
+			result = RenderedFragment.render(part);
+		} catch (IOException | RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("template name", templateName).
+					addException("Could not render fragment", ex).publish();
+			return part;
+		}
+
+		fragments.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Needed when the templates change.
+	 *
+	 * @methodtype command
+	 */
+	public void invalidateAll() {
+		fragments.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ObjectCache<?, ?> getCache() {
+		return fragments;
+	}
+
+	/**
+	 * A Key identifies a fragment.
+	 */
+	protected static class Key {
+
+		protected final String language;
+		protected final String templateName;
+		protected final int photoId;
+		protected final long version;
+
+		protected Key(String language, String templateName, int photoId, long version) {
+			this.language = language;
+			this.templateName = templateName;
+			this.photoId = photoId;
+			this.version = version;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) o;
+			return photoId == other.photoId && version == other.version && language.equals(other.language) &&
+					templateName.equals(other.templateName);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = language.hashCode();
+			result = 31 * result + templateName.hashCode();
+			result = 31 * result + photoId;
+			return 31 * result + (int) (version ^ (version >>> 32));
+		}
+	}
+
+}
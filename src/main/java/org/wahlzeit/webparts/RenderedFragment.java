@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A RenderedFragment is a Writable rendered once to UTF-8 bytes, which it then writes verbatim.
+ */
+public class RenderedFragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final byte[] bytes;
+
+	/**
+	 * @methodtype factory
+	 */
+	public static RenderedFragment render(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new RenderedFragment(out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	public RenderedFragment(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getLength() {
+		return bytes.length;
+	}
+
+}
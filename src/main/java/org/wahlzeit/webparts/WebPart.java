@@ -24,6 +24,7 @@ import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,11 +46,19 @@ public class WebPart implements Writable {
 	 */
 	protected Map<String, Object> parts = new HashMap<String, Object>();
 
+	/**
+	 * The values of parts, indexed like the keys of the compiled template
+	 */
+	protected Object[] values = null;
+
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		if (template != null && template.getCompiled() != null) {
+			values = new Object[template.getCompiled().getNoKeys()];
+		}
 	}
 
 	public Object getValue(String key) {
@@ -171,6 +180,12 @@ public class WebPart implements Writable {
 	protected void putValue(String key, Object value) {
 		if (value != null) {
 			parts.put(key, value);
+			if (values != null) {
+				int index = template.getCompiled().getKeyIndex(key);
+				if (index != -1) {
+					values[index] = value;
+				}
+			}
 		}
 	}
 
@@ -207,4 +222,11 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 
+	/**
+	 * Writes the pre-encoded template chunks, encoding only the values.
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		template.getCompiled().writeOn(out, values);
+	}
+
 }
@@ -45,6 +45,11 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 *
+	 */
+	protected CompiledTemplate compiled = null;
+
 	/**
 	 *
 	 */
@@ -59,7 +64,7 @@ public class WebPartTemplate {
 		List<String> keyList = new LinkedList<String>();
 		List<Integer> slotList = new LinkedList<Integer>();
 
-		StringBuffer buffer = new StringBuffer(source);
+		StringBuilder buffer = new StringBuilder(source);
 
 		for (int index = 0; index != -1; ) {
 			int nextSlot = buffer.indexOf("{$", index);
@@ -89,6 +94,7 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+		compiled = new CompiledTemplate(this);
 	}
 
 	/**
@@ -105,6 +111,13 @@ public class WebPartTemplate {
 		return template;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public CompiledTemplate getCompiled() {
+		return compiled;
+	}
+
 	/**
 	 *
 	 */
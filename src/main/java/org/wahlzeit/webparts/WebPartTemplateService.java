@@ -20,20 +20,37 @@
 
 package org.wahlzeit.webparts;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ * Once loadTemplates has read all templates, they are served from an immutable snapshot without touching the disk.
+ * A watcher thread may replace that snapshot when template files change.
  */
 public class WebPartTemplateService {
 
@@ -42,15 +59,42 @@ public class WebPartTemplateService {
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+
 	/**
-	 *
+	 * Template files end with this suffix
+	 */
+	public static final String TEMPLATE_FILE_SUFFIX = ".html";
+
+	/**
+	 * Separates the parts of a template name, whatever the platform's file separator is
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	public static final String NAME_SEPARATOR = "/";
+
+	/**
+	 * Changes arriving within this time are picked up by a single reload
+	 */
+	protected static final long RELOAD_DELAY_MILLIS = 200;
+
+	/**
+	 * Immutable; replaced as a whole, never modified
+	 */
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
+
+	/**
+	 * Whether templates holds all templates, so a miss needs no look at the disk
+	 */
+	protected volatile boolean isPreloaded = false;
+
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected WatchService watchService = null;
+
 	/**
 	 *
 	 */
@@ -69,17 +113,17 @@ public class WebPartTemplateService {
 	 *
 	 */
 	public WebPartTemplate getTemplate(String lang, String name) {
-		String shortName = lang + File.separator + name;
+		String shortName = lang + NAME_SEPARATOR + name;
 		WebPartTemplate result = templates.get(shortName);
 
-		if (result == null) {
+		if (result == null && !isPreloaded) {
 			try {
 				loadTemplate(shortName);
 				result = templates.get(shortName);
 			} catch (IOException ioex) {
-				log.warning(LogBuilder.createSystemMessage().
+				LogBuilder.createSystemMessage(log, Level.WARNING).
 						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
+						addException("Problem loading template", ioex).publish();
 			}
 		}
 
@@ -87,30 +131,196 @@ public class WebPartTemplateService {
 	}
 
 	/**
+	 * Reads and compiles the templates of all languages, then swaps them in at once. Default templates take
+	 * precedence over custom ones, as with single templates.
 	 *
+	 * @methodtype command
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
-		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
+	public synchronized void loadTemplates() throws IOException {
+		Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>();
+		readTemplates(Paths.get(getTemplatesDir().getCustomDirName()), newTemplates);
+		readTemplates(Paths.get(getTemplatesDir().getDefaultDirName()), newTemplates);
+
+		templates = Collections.unmodifiableMap(newTemplates);
+		isPreloaded = true;
+		FragmentCache.getInstance().invalidateAll();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("Load templates").
+				addParameter("number of templates", newTemplates.size()).publish();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void readTemplates(final Path dir, final Map<String, WebPartTemplate> result) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String fileName = asTemplateName(dir.relativize(file));
+				if (attrs.isRegularFile() && fileName.endsWith(TEMPLATE_FILE_SUFFIX)) {
+					String shortName = fileName.substring(0, fileName.length() - TEMPLATE_FILE_SUFFIX.length());
+					result.put(shortName, readTemplate(shortName, file.toFile()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asTemplateName(Path relativePath) {
+		StringBuilder result = new StringBuilder();
+		for (Path element : relativePath) {
+			if (result.length() > 0) {
+				result.append(NAME_SEPARATOR);
+			}
+			result.append(element.toString());
+		}
+		return result.toString();
+	}
+
+	/**
+	 *
+	 */
+	protected synchronized void loadTemplate(String shortName) throws IOException {
+		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_SUFFIX);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("open html template file").
-				addParameter("file name", fileName).toString());
+				addParameter("file name", fileName).publish();
 		File file = new File(fileName);
 
 		try {
-			String source = Files.toString(file, Charsets.UTF_8);
-			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+			WebPartTemplate template = readTemplate(shortName, file);
+			Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+			newTemplates.put(shortName, template);
+			templates = Collections.unmodifiableMap(newTemplates);
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("I/O Error while reading Template file", e).publish();
+		}
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected WebPartTemplate readTemplate(String shortName, File file) throws IOException {
+		WebPartTemplate result = new WebPartTemplate(shortName);
+		String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		result.initialize(source);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Initialize template").publish();
+		return result;
+	}
+
+	/**
+	 * Starts a thread that reloads all templates whenever a template file is created, changed or deleted.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void startWatching(ThreadFactory threadFactory) throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		final WatchService newWatchService = FileSystems.getDefault().newWatchService();
+		registerAll(newWatchService, Paths.get(getTemplatesDir().getDefaultDirName()));
+		registerAll(newWatchService, Paths.get(getTemplatesDir().getCustomDirName()));
+		watchService = newWatchService;
+
+		Thread watcher = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				watchTemplates(newWatchService);
+			}
+		});
+		watcher.setName("template-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stopWatching() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Could not stop watching templates", ex).publish();
+			}
+			watchService = null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void registerAll(final WatchService watcher, Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+				subDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Runs until the watch service is closed. Editors save in several steps, so events are collected for a little
+	 * while before reloading.
+	 *
+	 * @methodtype command
+	 */
+	protected void watchTemplates(WatchService watcher) {
+		try {
+			for (WatchKey key = watcher.take(); ; key = watcher.take()) {
+				do {
+					handleEvents(watcher, key);
+					key = watcher.poll(RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+				} while (key != null);
 
-			if (source != null) {
-				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+				try {
+					loadTemplates();
+				} catch (IOException | RuntimeException ex) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addException("Could not reload templates", ex).publish();
+				}
 			}
+		} catch (ClosedWatchServiceException | InterruptedException ex) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Stop watching templates").publish();
+		}
+	}
 
-			templates.put(shortName, template);
-		} catch (IOException e) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+	/**
+	 * New directories need to be watched as well.
+	 *
+	 * @methodtype command
+	 */
+	protected void handleEvents(WatchService watcher, WatchKey key) {
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+				Path child = dir.resolve((Path) event.context());
+				try {
+					registerAll(watcher, child);
+				} catch (IOException ex) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addParameter("directory", child).
+							addException("Could not watch template directory", ex).publish();
+				}
+			}
 		}
+		key.reset();
 	}
 
 	/**
@@ -121,10 +331,13 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Drops all templates read from the former directory.
 	 */
-	public void setTemplatesDir(ConfigDir newTemplatesDir) {
+	public synchronized void setTemplatesDir(ConfigDir newTemplatesDir) {
 		templatesDir = newTemplatesDir;
+		templates = Collections.emptyMap();
+		isPreloaded = false;
+		FragmentCache.getInstance().invalidateAll();
 	}
 
 }
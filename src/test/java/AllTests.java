@@ -6,8 +6,11 @@ import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.*;
 import org.wahlzeit.services.*;
+import org.wahlzeit.services.cache.*;
 import org.wahlzeit.services.mailing.*;
+import org.wahlzeit.servlets.*;
 import org.wahlzeit.utils.*;
+import org.wahlzeit.webparts.*;
 
 @RunWith(Suite.class)
 
@@ -21,24 +24,49 @@ import org.wahlzeit.utils.*;
         FlagReasonTest.class,
         GenderTest.class,
         GuestTest.class,
+        IdAllocatorTest.class,
+        ModelSnapshotTest.class,
         PhotoFilterTest.class,
+        PhotoIdPoolTest.class,
+        PhotoIdSetTest.class,
+        PhotoIdTableTest.class,
+        PhotoManagerTest.class,
+        PhotoTagIndexTest.class,
+        PhotoTest.class,
+        PhotoUtilTest.class,
         TagsTest.class,
         UserStatusTest.class,
         ValueTest.class,
 
         // model.persistence
         DatastoreAdapterTest.class,
+        FileSystemImageStorageTest.class,
 
         // services
         EmailAddressTest.class,
         LogBuilderTest.class,
+        ObjectManagerTest.class,
+        WriteBehindQueueTest.class,
+
+        // services.cache
+        ObjectCacheTest.class,
 
         // services.mailing
         EmailServiceTest.class,
 
+        // servlets
+        PageOutputStreamTest.class,
+        StaticDataServletTest.class,
+
         // utils
+        HtmlUtilTest.class,
         StringUtilTest.class,
-        VersionTest.class
+        VersionTest.class,
+
+        // webparts
+        FragmentCacheTest.class,
+        WebPartTemplateServiceTest.class,
+        WebPartTest.class
 
 })
 public class AllTests {
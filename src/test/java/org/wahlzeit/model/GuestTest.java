@@ -1,15 +1,26 @@
 package org.wahlzeit.model;
 
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
 import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test class for {@link Guest}.
@@ -44,6 +55,78 @@ public class GuestTest {
 		testGetGuestFromUserManager(Guest.GUEST_PREFIX + ++clientId);
 	}
 
+	/**
+	 * Clients saved before their photo ids were kept in sets stored lists of embedded PhotoIds.
+	 */
+	@Test
+	public void testLoadsStoredPhotoIds() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoId praisedId = PhotoId.getNextId();
+				PhotoId lastPraisedId = PhotoId.getNextId();
+				PhotoId skippedId = PhotoId.getNextId();
+
+				Entity legacy = OfyService.ofy().save().toEntity(new Guest());
+				legacy.setUnindexedProperty("praisedPhotoIds",
+						Arrays.asList(asEmbeddedId(praisedId), asEmbeddedId(lastPraisedId)));
+				legacy.setUnindexedProperty("skippedPhotoIds", Arrays.asList(asEmbeddedId(skippedId)));
+
+				Client client = OfyService.ofy().load().fromEntity(legacy);
+				assertTrue(client.getPraisedPhotoIds().contains(praisedId));
+				assertTrue(client.getPraisedPhotoIds().contains(lastPraisedId));
+				assertTrue(client.getSkippedPhotoIds().contains(skippedId));
+				assertEquals(lastPraisedId, client.recentlyPraisedPhotoIds.get(1));
+
+				Client result = OfyService.ofy().load().fromEntity(OfyService.ofy().save().toEntity(client));
+				assertEquals(2, result.getPraisedPhotoIds().size());
+				assertTrue(result.getSkippedPhotoIds().contains(skippedId));
+			}
+		});
+	}
+
+	/**
+	 * Photo ids are stored in the versioned form of PhotoIdSet; clients stored before still hold serialized sets.
+	 */
+	@Test
+	public void testStoresPhotoIdsInVersionedForm() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoId praisedId = PhotoId.getNextId();
+				Guest guest = new Guest();
+				guest.addPraisedPhotoId(praisedId);
+
+				Entity entity = OfyService.ofy().save().toEntity(guest);
+				byte[] bytes = ((Blob) entity.getProperty("praisedPhotoIds")).getBytes();
+				assertEquals(PhotoIdSet.FORMAT_VERSION, bytes[0]);
+				Client result = OfyService.ofy().load().fromEntity(entity);
+				assertTrue(result.getPraisedPhotoIds().contains(praisedId));
+
+				entity.setUnindexedProperty("praisedPhotoIds", new Blob(asJavaSerialized(guest.getPraisedPhotoIds())));
+				result = OfyService.ofy().load().fromEntity(entity);
+				assertTrue(result.getPraisedPhotoIds().contains(praisedId));
+			}
+		});
+	}
+
+	protected byte[] asJavaSerialized(PhotoIdSet ids) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(result)) {
+			out.writeObject(ids);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return result.toByteArray();
+	}
+
+	protected EmbeddedEntity asEmbeddedId(PhotoId id) {
+		EmbeddedEntity result = new EmbeddedEntity();
+		result.setUnindexedProperty("value", (long) id.asInt());
+		result.setUnindexedProperty("stringValue", id.asString());
+		return result;
+	}
+
 	protected void assertNewGuestHasId(int id) {
 		Guest testGuest = ObjectifyService.run(new Work<Guest>() {
 			@Override
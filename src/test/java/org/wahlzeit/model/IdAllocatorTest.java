@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.apphosting.api.ApiProxy;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the IdAllocator class.
+ */
+public class IdAllocatorTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIdsAreUniqueAcrossThreadsAndInstances() throws InterruptedException {
+		// two allocators of the same counter stand for two instances of the application
+		final IdAllocator[] allocators = {
+				new IdAllocator(IdAllocator.Counter.CASE, 10), new IdAllocator(IdAllocator.Counter.CASE, 10)
+		};
+		final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		final int idsPerThread = 250;
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final IdAllocator allocator = allocators[i % 2];
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					for (int j = 0; j < idsPerThread; j++) {
+						assertTrue(ids.add(allocator.getNextId()));
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4 * idsPerThread, ids.size());
+		for (int id = 1; id <= 4 * idsPerThread; id++) {
+			assertTrue(ids.contains(id));
+		}
+	}
+
+}
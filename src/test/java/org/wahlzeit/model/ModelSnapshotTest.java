@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ModelSnapshot class.
+ */
+public class ModelSnapshotTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("model.snapshot");
+		ModelSnapshot snapshot = createSnapshot(file);
+		snapshot.write();
+
+		ModelSnapshot result = new ModelSnapshot(file);
+		assertTrue(result.read());
+		assertEquals(snapshot.getCreationTime(), result.getCreationTime());
+		assertEquals(42, result.globals.getLastPhotoId());
+		assertEquals(2, result.getNoPhotos());
+		assertEquals(snapshot.photoConditions, result.photoConditions);
+		assertTrue(result.visiblePhotoIds.contains(7));
+		assertFalse(result.visiblePhotoIds.contains(8));
+
+		Photo photo = result.cachedPhotos.get(7);
+		assertEquals("alice", photo.getOwnerId());
+		assertEquals(12.5, photo.getPraise(), 0.0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRejectsCorruptSnapshot() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("model.snapshot");
+		assertFalse(new ModelSnapshot(file).read());
+
+		createSnapshot(file).write();
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file, bytes);
+
+		assertFalse(new ModelSnapshot(file).read());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteLeavesPhotosUntouched() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("model.snapshot");
+		ModelSnapshot snapshot = createSnapshot(file);
+		Photo photo = snapshot.cachedPhotos.get(7);
+		photo.modificationTime = 1000L;
+		snapshot.write();
+
+		assertEquals(10, photo.praiseSum);
+		assertEquals(1, photo.noVotes);
+		assertEquals(15, photo.unfoldedPraiseSum.sum());
+		assertEquals(1, photo.unfoldedNoVotes.sum());
+		assertEquals(1000L, photo.getModificationTime());
+
+		ModelSnapshot result = new ModelSnapshot(file);
+		assertTrue(result.read());
+		assertEquals(1000L, result.cachedPhotos.get(7).getModificationTime());
+	}
+
+	/**
+	 *
+	 */
+	protected ModelSnapshot createSnapshot(Path file) {
+		ModelSnapshot result = new ModelSnapshot(file);
+		result.creationTime = 1234567L;
+
+		result.globals = new Globals();
+		result.globals.setLastUserId(3L);
+		result.globals.setLastPhotoId(42);
+
+		Photo photo = new Photo(new PhotoId(7));
+		photo.setOwnerId("alice");
+		photo.addToPraise(15);
+		result.cachedPhotos.put(7, photo);
+		result.photoConditions.put(7, new HashSet<String>(Arrays.asList("un:alice", "tg:alice")));
+		result.photoConditions.put(8, new HashSet<String>(Arrays.asList("tg:beer")));
+		result.visiblePhotoIds.add(7);
+		return result;
+	}
+
+}
@@ -22,7 +22,13 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -84,4 +90,58 @@ public class PhotoFilterTest {
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testSerializationDropsCandidates() throws Exception {
+		photoFilter.generateDisplayablePhotoIds();
+		photoFilter.displayablePhotoIds.add(new PhotoId(3));
+		photoFilter.addSkippedPhotoId(new PhotoId(4));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(photoFilter);
+		}
+		PhotoFilter result;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			result = (PhotoFilter) in.readObject();
+		}
+
+		assertTrue(result.displayablePhotoIds.isEmpty());
+		assertEquals(PhotoFilter.NO_SEQUENCE, result.changeSequence);
+		assertTrue(result.skippedPhotoIds.contains(4));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRebuildsForOtherChangeLog() {
+		PhotoChangeLog changeLog = PhotoManager.getInstance().getPhotoChangeLog();
+		photoFilter.generateDisplayablePhotoIds();
+		assertEquals(changeLog.getEpoch(), photoFilter.changeLogEpoch);
+
+		// a sequence of another log must not be taken for one of this log
+		photoFilter.changeLogEpoch = changeLog.getEpoch() + 1;
+		photoFilter.displayablePhotoIds.add(new PhotoId(3));
+		photoFilter.generateDisplayablePhotoIds();
+
+		assertEquals(changeLog.getEpoch(), photoFilter.changeLogEpoch);
+		assertFalse(photoFilter.displayablePhotoIds.contains(3));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemoveDisplayablePhotoIdDropsSkippedPhoto() {
+		PhotoId id = PhotoId.getNextId();
+		photoFilter.addSkippedPhotoId(id);
+		assertEquals(id, photoFilter.getRandomDisplayablePhotoId());
+
+		photoFilter.removeDisplayablePhotoId(id);
+		assertTrue(photoFilter.getRandomDisplayablePhotoId().isNullId());
+	}
+
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdPool class.
+ */
+public class PhotoIdPoolTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemove() {
+		PhotoIdPool pool = new PhotoIdPool();
+		for (int i = 1; i <= 1000; i++) {
+			assertTrue(pool.add(i));
+		}
+		assertFalse(pool.add(500));
+		assertEquals(1000, pool.size());
+
+		for (int i = 1; i <= 1000; i += 2) {
+			assertTrue(pool.remove(i));
+		}
+		assertFalse(pool.remove(1));
+		assertEquals(500, pool.size());
+
+		for (int i = 1; i <= 1000; i++) {
+			assertEquals(i % 2 == 0, pool.contains(i));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSelectReachesAllMembers() {
+		PhotoIdSet photoIds = new PhotoIdSet();
+		photoIds.add(3);
+		photoIds.add(70000);
+		photoIds.add(11);
+		PhotoIdPool pool = new PhotoIdPool(photoIds);
+		pool.remove(11);
+
+		Random random = new Random(42);
+		PhotoIdSet drawn = new PhotoIdSet();
+		for (int i = 0; i < 100; i++) {
+			int id = pool.select(random);
+			assertTrue(pool.contains(id));
+			drawn.add(id);
+		}
+		assertEquals(2, drawn.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerialization() throws Exception {
+		PhotoIdPool pool = new PhotoIdPool();
+		for (int i = 0; i < 100; i++) {
+			pool.add(i * 7);
+		}
+		pool.remove(14);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(pool);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoIdPool copy = (PhotoIdPool) in.readObject();
+		assertEquals(99, copy.size());
+		assertTrue(copy.contains(693));
+		assertFalse(copy.contains(14));
+		assertTrue(copy.add(14));
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdSet class.
+ */
+public class PhotoIdSetTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddContainsRemove() {
+		PhotoIdSet set = new PhotoIdSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(new PhotoId(7)));
+		assertFalse(set.add(7));
+		assertTrue(set.add(70000));
+
+		assertEquals(2, set.size());
+		assertTrue(set.contains(new PhotoId(7)));
+		assertTrue(set.contains(70000));
+		assertFalse(set.contains(8));
+
+		assertTrue(set.remove(7));
+		assertFalse(set.remove(7));
+		assertEquals(1, set.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDenseContainer() {
+		PhotoIdSet set = new PhotoIdSet();
+		for (int i = 0; i < 10000; i += 2) {
+			set.add(i);
+		}
+
+		assertEquals(5000, set.size());
+		assertTrue(set.contains(9998));
+		assertFalse(set.contains(9999));
+
+		for (int i = 0; i < 10000; i += 4) {
+			set.remove(i);
+		}
+		assertEquals(2500, set.size());
+		assertTrue(set.contains(2));
+		assertFalse(set.contains(4));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSetOperations() {
+		PhotoIdSet a = new PhotoIdSet();
+		PhotoIdSet b = new PhotoIdSet();
+		for (int i = 0; i < 6000; i++) {
+			a.add(i);
+			b.add(i + 3000);
+		}
+
+		PhotoIdSet union = a.copy();
+		union.addAll(b);
+		assertEquals(9000, union.size());
+
+		PhotoIdSet intersection = a.copy();
+		intersection.retainAll(b);
+		assertEquals(3000, intersection.size());
+		assertTrue(intersection.contains(3000));
+		assertFalse(intersection.contains(2999));
+
+		PhotoIdSet difference = a.copy();
+		difference.removeAll(b);
+		assertEquals(3000, difference.size());
+		assertTrue(difference.contains(2999));
+		assertFalse(difference.contains(3000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSelectAndIteration() {
+		PhotoIdSet set = new PhotoIdSet();
+		set.add(70000);
+		set.add(3);
+		set.add(5);
+
+		assertEquals(3, set.select(0));
+		assertEquals(70000, set.select(2));
+		assertArrayEquals(new int[] {3, 5, 70000}, set.toIntArray());
+
+		int count = 0;
+		for (PhotoIdSet.IntIterator i = set.intIterator(); i.hasNext(); count++) {
+			assertTrue(set.contains(i.next()));
+		}
+		assertEquals(3, count);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerialization() throws Exception {
+		PhotoIdSet set = new PhotoIdSet();
+		for (int i = 0; i < 5000; i++) {
+			set.add(i * 3);
+		}
+		set.add(100000);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(set);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoIdSet copy = (PhotoIdSet) in.readObject();
+		assertEquals(set, copy);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStoredForm() throws Exception {
+		PhotoIdSet set = new PhotoIdSet();
+		for (int i = 0; i < 5000; i++) {
+			set.add(i * 3);
+		}
+		set.add(100000);
+
+		byte[] bytes = set.asBytes();
+		assertEquals(PhotoIdSet.FORMAT_VERSION, bytes[0]);
+		assertEquals(set, PhotoIdSet.fromBytes(bytes));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IOException.class)
+	public void testRejectsUnknownFormat() throws Exception {
+		byte[] bytes = new PhotoIdSet().asBytes();
+		bytes[0] = PhotoIdSet.FORMAT_VERSION + 1;
+		PhotoIdSet.fromBytes(bytes);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the PhotoIdTable class.
+ */
+public class PhotoIdTableTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetOrCreateInterns() {
+		PhotoIdTable table = new PhotoIdTable();
+		assertNull(table.get(5));
+
+		PhotoId id = table.getOrCreate(5);
+		assertEquals(5, id.asInt());
+		assertSame(id, table.getOrCreate(5));
+		assertSame(id, table.get(5));
+
+		// ids spanning chunks and directories
+		int[] values = { PhotoIdTable.CHUNK_SIZE, PhotoIdTable.CHUNK_SIZE * PhotoIdTable.DIRECTORY_SIZE, Integer.MAX_VALUE };
+		for (int value : values) {
+			assertNull(table.get(value));
+			assertSame(table.getOrCreate(value), table.get(value));
+			assertEquals(value, table.get(value).asInt());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutIfAbsentKeepsFirst() {
+		PhotoIdTable table = new PhotoIdTable();
+		PhotoId first = new PhotoId(7);
+		assertSame(first, table.putIfAbsent(first));
+		assertSame(first, table.putIfAbsent(new PhotoId(7)));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeId() {
+		new PhotoIdTable().get(-1);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentInterning() throws Exception {
+		final PhotoIdTable table = new PhotoIdTable();
+		final int noIds = 4 * PhotoIdTable.CHUNK_SIZE;
+		int noThreads = 4;
+
+		ExecutorService executor = Executors.newFixedThreadPool(noThreads);
+		try {
+			List<Future<PhotoId[]>> results = new ArrayList<Future<PhotoId[]>>();
+			for (int i = 0; i < noThreads; i++) {
+				results.add(executor.submit(new Callable<PhotoId[]>() {
+					@Override
+					public PhotoId[] call() {
+						PhotoId[] result = new PhotoId[noIds];
+						for (int id = 0; id < noIds; id++) {
+							result[id] = table.getOrCreate(id);
+						}
+						return result;
+					}
+				}));
+			}
+
+			PhotoId[] expected = results.get(0).get();
+			for (Future<PhotoId[]> result : results) {
+				PhotoId[] actual = result.get();
+				for (int id = 0; id < noIds; id++) {
+					assertSame(expected[id], actual[id]);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotoIdUsesTable() {
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(0));
+
+		int id = PhotoId.getNextIdAsInt();
+		assertSame(PhotoId.getIdFromInt(id), PhotoId.getIdFromInt(id));
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(-1));
+	}
+
+}
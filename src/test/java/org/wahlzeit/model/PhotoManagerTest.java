@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoManager class.
+ */
+public class PhotoManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 * Number of times the tags of a photo were read from the datastore
+	 */
+	protected int noTagReads = 0;
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMigratesPhotoWrittenWithoutIndex() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoId id = new PhotoId(4711);
+				Photo photo = new Photo(id);
+				photo.setOwnerId("alice");
+				writeLegacyEntity(photo);
+
+				PhotoFactory photoFactory = PhotoFactory.getInstance();
+				assertNull(photoFactory.loadPhoto(id));
+
+				createPhotoManager().loadPhotos();
+
+				Photo result = photoFactory.loadPhoto(id);
+				assertNotNull(result);
+				assertTrue(result.hasCurrentSchema());
+				assertEquals("alice", result.getOwnerId());
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadsOnlyKnownPhotos() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoId id = new PhotoId(4712);
+				OfyService.ofy().save().entity(new Photo(id)).now();
+
+				PhotoManager photoManager = createPhotoManager();
+				assertNull(photoManager.getPhotoFromId(id));
+
+				photoManager.photoIds.add(id);
+				Photo result = photoManager.getPhotoFromId(id);
+				assertNotNull(result);
+				assertEquals(id, result.getId());
+				assertTrue(photoManager.getPhotoCache().containsKey(id));
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentRequestsLoadPhotoOnce() throws Exception {
+		final PhotoId id = new PhotoId(4716);
+		final AtomicInteger noReads = new AtomicInteger();
+		final CountDownLatch isReading = new CountDownLatch(1);
+		final CountDownLatch mayFinish = new CountDownLatch(1);
+		final PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo readPhoto(PhotoId photoId) {
+				noReads.incrementAndGet();
+				isReading.countDown();
+				try {
+					mayFinish.await();
+				} catch (InterruptedException ex) {
+					throw new IllegalStateException(ex);
+				}
+				return new Photo(photoId);
+			}
+
+			@Override
+			protected void loadScaledImages(Photo photo) {
+				// do nothing
+			}
+		};
+		photoManager.photoIds.add(id);
+
+		final AtomicReference<Photo> firstResult = new AtomicReference<Photo>();
+		final AtomicReference<Photo> secondResult = new AtomicReference<Photo>();
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				firstResult.set(photoManager.getPhotoFromId(id));
+			}
+		});
+		Thread second = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				secondResult.set(photoManager.getPhotoFromId(id));
+			}
+		});
+
+		first.start();
+		isReading.await();
+		second.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (second.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		mayFinish.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(1, noReads.get());
+		assertNotNull(firstResult.get());
+		assertSame(firstResult.get(), secondResult.get());
+		assertSame(firstResult.get(), photoManager.getPhotoCache().get(id));
+		assertTrue(photoManager.pendingLoads.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadKeepsCachedInstance() {
+		final PhotoId id = new PhotoId(4717);
+		final Photo cachedPhoto = new Photo(id);
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Photo readPhoto(PhotoId photoId) {
+				// a concurrent load finishes first
+				doAddPhoto(cachedPhoto);
+				return new Photo(photoId);
+			}
+
+			@Override
+			protected void loadScaledImages(Photo photo) {
+				// do nothing
+			}
+		};
+		photoManager.photoIds.add(id);
+
+		assertSame(cachedPhoto, photoManager.getPhotoFromId(id));
+		assertSame(cachedPhoto, photoManager.getPhotoCache().get(id));
+	}
+
+	/**
+	 * PhotoManager.getInstance() is a BeerPhotoManager, so that is what reloads evicted photos.
+	 */
+	@Test
+	public void testBeerPhotoManagerReloadsKnownPhotos() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoId id = new PhotoId(4718);
+				Photo storedPhoto = new Photo(id);
+				storedPhoto.setTags(new Tags("porter"));
+				OfyService.ofy().save().entity(storedPhoto).now();
+
+				PhotoManager photoManager = new BeerPhotoManager() {
+					@Override
+					protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName,
+												   Object value) {
+						if (type == Tag.class) {
+							noTagReads++;
+						}
+						super.readObjects(result, type, propertyName, value);
+					}
+
+					@Override
+					protected void loadScaledImages(Photo photo) {
+						// do nothing
+					}
+				};
+
+				// unknown photos are not looked up
+				assertNull(photoManager.getPhotoFromId(id));
+
+				photoManager.photoIds.add(id);
+				Photo result = photoManager.getPhotoFromId(id);
+				assertNotNull(result);
+				photoManager.updateTags(result);
+				assertEquals(0, noTagReads);
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateTagsWritesDifferences() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoManager photoManager = createTagCountingPhotoManager();
+				Photo photo = new Photo(new PhotoId(4713));
+				photo.setOwnerId("alice");
+				photo.setTags(new Tags("beer"));
+
+				// nothing known about the photo, so its stored tags are read
+				photoManager.updateTags(photo);
+				assertEquals(1, noTagReads);
+				assertEquals(asSet("un:alice", "tg:alice", "tg:beer"), readStoredTags(photo));
+
+				// only added tags need no read
+				photo.setTags(new Tags("beer, lager"));
+				photoManager.updateTags(photo);
+				assertEquals(1, noTagReads);
+				assertEquals(asSet("un:alice", "tg:alice", "tg:beer", "tg:lager"), readStoredTags(photo));
+
+				photoManager.updateTags(photo);
+				assertEquals(1, noTagReads);
+
+				// removed tags have to be looked up to be deleted
+				photo.setTags(new Tags("lager"));
+				photoManager.updateTags(photo);
+				assertEquals(2, noTagReads);
+				assertEquals(asSet("un:alice", "tg:alice", "tg:lager"), readStoredTags(photo));
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadedPhotosNeedNoTagRead() {
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				PhotoManager photoManager = createTagCountingPhotoManager();
+				Photo photo = new Photo(new PhotoId(4714));
+				photo.setTags(new Tags("beer"));
+				assertNull(photoManager.doLoadPhoto(photo, photoManager.getPhotoCache().getMaxEntries(), null));
+
+				photo.setTags(new Tags("beer, lager"));
+				photoManager.updateTags(photo);
+				assertEquals(0, noTagReads);
+
+				PhotoId id = new PhotoId(4715);
+				Photo storedPhoto = new Photo(id);
+				storedPhoto.setTags(new Tags("stout"));
+				OfyService.ofy().save().entity(storedPhoto).now();
+				photoManager.photoIds.add(id);
+
+				Photo result = photoManager.getPhotoFromId(id);
+				photoManager.updateTags(result);
+				assertEquals(0, noTagReads);
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> readStoredTags(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		for (Tag tag : OfyService.ofy().load().type(Tag.class).filter(Tag.PHOTO_ID, photo.getIdAsString()).list()) {
+			result.add(tag.getText());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static Set<String> asSet(String... texts) {
+		return new HashSet<String>(Arrays.asList(texts));
+	}
+
+	/**
+	 * Writes the photo the way it was stored before its id was indexed.
+	 */
+	protected void writeLegacyEntity(Photo photo) {
+		Entity entity = OfyService.ofy().save().toEntity(photo);
+		Entity result = new Entity(entity.getKind(), entity.getParent());
+		for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+			if (!"schemaVersion".equals(property.getKey())) {
+				result.setUnindexedProperty(property.getKey(), property.getValue());
+			}
+		}
+		DatastoreServiceFactory.getDatastoreService().put(result);
+	}
+
+	/**
+	 * The photos of these tests have no images, and other threads could not access the local datastore anyway.
+	 */
+	protected PhotoManager createPhotoManager() {
+		return new PhotoManager() {
+			@Override
+			protected Future<?> doLoadPhoto(Photo photo, int noCachedPhotos, ExecutorService executor) {
+				photoIds.add(photo.getId());
+				return null;
+			}
+
+			@Override
+			protected void loadScaledImages(Photo photo) {
+				// do nothing
+			}
+		};
+	}
+
+	/**
+	 * Counts the reads of stored tags; the photos of these tests have no images.
+	 */
+	protected PhotoManager createTagCountingPhotoManager() {
+		return new PhotoManager() {
+			@Override
+			protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName, Object value) {
+				if (type == Tag.class) {
+					noTagReads++;
+				}
+				super.readObjects(result, type, propertyName, value);
+			}
+
+			@Override
+			protected void loadScaledImages(Photo photo) {
+				// do nothing
+			}
+		};
+	}
+
+}
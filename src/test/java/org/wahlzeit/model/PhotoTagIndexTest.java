@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoTagIndex class.
+ */
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex index;
+
+	@Before
+	public void initIndex() {
+		index = new PhotoTagIndex();
+		index.setConditions(new PhotoId(1), new HashSet<String>(Arrays.asList("un:alice", "tg:beer")));
+		index.setConditions(new PhotoId(2), new HashSet<String>(Arrays.asList("un:bob", "tg:beer")));
+		index.setConditions(new PhotoId(3), new HashSet<String>(Arrays.asList("un:bob", "tg:wine")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIntersection() {
+		PhotoIdSet result = index.getPhotoIds(Arrays.asList("un:bob", "tg:beer"));
+		assertEquals(1, result.size());
+		assertTrue(result.contains(2));
+
+		assertEquals(2, index.getPhotoIds(Arrays.asList("tg:beer")).size());
+		assertTrue(index.getPhotoIds(Arrays.asList("tg:beer", "tg:unknown")).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateRemovesDroppedConditions() {
+		index.setConditions(new PhotoId(2), new HashSet<String>(Arrays.asList("un:bob", "tg:wine")));
+
+		assertEquals(1, index.getPhotoIds(Arrays.asList("tg:beer")).size());
+		assertEquals(2, index.getPhotoIds(Arrays.asList("tg:wine")).size());
+		assertEquals(new HashSet<String>(Arrays.asList("un:bob", "tg:wine")), index.getConditions(new PhotoId(2)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRemovePhoto() {
+		index.removePhoto(new PhotoId(1));
+
+		assertTrue(index.getPhotoIds(Arrays.asList("un:alice")).isEmpty());
+		assertTrue(index.getConditions(new PhotoId(1)).isEmpty());
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+import org.wahlzeit.services.DataObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the dirty field groups of the Photo class.
+ */
+public class PhotoTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPraiseOnlyDirtiesPraiseFields() {
+		Photo photo = new Photo(new PhotoId(1));
+		assertEquals(DataObject.ALL_FIELD_GROUPS, photo.getDirtyFieldGroups());
+
+		photo.resetWriteCount();
+		photo.addToPraise(5);
+
+		assertTrue(photo.isDirty());
+		assertTrue(photo.isDirty(Photo.PRAISE_FIELDS));
+		assertFalse(photo.isDirty(Photo.TAG_FIELDS | Photo.OWNER_FIELDS | Photo.IMAGE_FIELDS));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFieldGroupsAccumulateUntilReset() {
+		Photo photo = new Photo(new PhotoId(2));
+		photo.resetWriteCount();
+		photo.addToPraise(5);
+		photo.setStatus(PhotoStatus.FLAGGED);
+
+		assertEquals(Photo.PRAISE_FIELDS | Photo.STATUS_FIELDS, photo.getDirtyFieldGroups());
+
+		photo.resetWriteCount();
+		assertFalse(photo.isDirty());
+		assertEquals(0, photo.getDirtyFieldGroups());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testVersionSurvivesReset() {
+		Photo photo = new Photo(new PhotoId(4));
+		Photo other = new Photo(new PhotoId(5));
+		assertTrue(other.getVersion() > photo.getVersion());
+
+		photo.addToPraise(3);
+		assertTrue(photo.getVersion() > other.getVersion());
+
+		long version = photo.getVersion();
+		photo.resetWriteCount();
+		assertEquals(version, photo.getVersion());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentPraiseIsNotLost() throws InterruptedException {
+		final Photo photo = new Photo(new PhotoId(3));
+		final int votesPerThread = 10000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < votesPerThread; j++) {
+						photo.addToPraise(2);
+					}
+				}
+			});
+		}
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				for (int j = 0; j < 100; j++) {
+					photo.foldPraise();
+				}
+			}
+		});
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		int votes = 4 * votesPerThread;
+		assertEquals(1 + votes, photo.getNoVotes());
+		photo.foldPraise();
+		assertEquals(1 + votes, photo.noVotes);
+		assertEquals(10 + 2 * votes, photo.praiseSum);
+		assertEquals(0, photo.unfoldedNoVotes.sum());
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.testEnvironmentProvider.LocalImagesServiceTestConfigProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+/**
+ * Test cases for the PhotoUtil class.
+ */
+public class PhotoUtilTest {
+
+	@Rule
+	public LocalImagesServiceTestConfigProvider imagesServiceProvider = new LocalImagesServiceTestConfigProvider();
+
+	private ImageStorage imageStorage;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		imageStorage = mock(ImageStorage.class);
+		ImageStorage.setInstance(imageStorage);
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		ImageStorage.setInstance(null);
+		PhotoUtil.setLazyScaling(false);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCreateImageFilesCreatesFittingSizes() throws Exception {
+		Photo photo = new Photo(new PhotoId(1));
+		PhotoUtil.createImageFiles(createImage(250, 350), photo);
+
+		Image largestImage = photo.getImage(PhotoSize.EXTRA_SMALL);
+		assertNotNull(largestImage);
+		assertFits(largestImage, PhotoSize.EXTRA_SMALL);
+		assertEquals(PhotoSize.EXTRA_SMALL.calcAdjustedHeight(250, 350), largestImage.getHeight());
+
+		assertNotNull(photo.getImage(PhotoSize.THUMB));
+		assertFits(photo.getImage(PhotoSize.THUMB), PhotoSize.THUMB);
+		for (PhotoSize size : PhotoSize.values()) {
+			if (PhotoSize.EXTRA_SMALL.isSmaller(size)) {
+				assertNull(size.asString(), photo.getImage(size));
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLazyScalingCreatesLargestSizeAndThumb() throws Exception {
+		PhotoUtil.setLazyScaling(true);
+		Photo photo = new Photo(new PhotoId(2));
+		PhotoUtil.createImageFiles(createImage(700, 1000), photo);
+
+		for (PhotoSize size : PhotoSize.values()) {
+			boolean isCreated = size == PhotoSize.LARGE || size == PhotoSize.THUMB;
+			assertEquals(size.asString(), isCreated, photo.getImage(size) != null);
+		}
+		assertFits(photo.getImage(PhotoSize.THUMB), PhotoSize.THUMB);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCreateScaledImageUsesSmallestLargerImage() throws Exception {
+		Photo photo = new Photo(new PhotoId(3));
+		photo.setImage(PhotoSize.MEDIUM, createImage(420, 200));
+		photo.setImage(PhotoSize.LARGE, createImage(400, 900));
+
+		// only the medium image is wider than high
+		Image result = PhotoUtil.createScaledImage(photo, PhotoSize.SMALL);
+		assertTrue(result.getWidth() > result.getHeight());
+		assertFits(result, PhotoSize.SMALL);
+
+		assertNull(PhotoUtil.createScaledImage(photo, PhotoSize.EXTRA_LARGE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetScaledImageCreatesAndStoresMissingSize() throws Exception {
+		Photo photo = new Photo(new PhotoId(4));
+		photo.setWidthAndHeight(700, 1000);
+		photo.setImage(PhotoSize.LARGE, createImage(630, 900));
+		PhotoManager photoManager = new PhotoManager();
+
+		Image result = photoManager.getScaledImage(photo, PhotoSize.SMALL);
+		assertNotNull(result);
+		assertFits(result, PhotoSize.SMALL);
+		assertSame(result, photo.getImage(PhotoSize.SMALL));
+		assertSame(result, photoManager.getScaledImage(photo, PhotoSize.SMALL));
+
+		// the photo is too small for this size
+		assertNull(photoManager.getScaledImage(photo, PhotoSize.EXTRA_LARGE));
+
+		verify(imageStorage, times(1)).writeImage(result, photo.getIdAsString(), PhotoSize.SMALL.asInt());
+		verifyNoMoreInteractions(imageStorage);
+		assertTrue(photoManager.pendingScalings.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetScaledImageScalesOnceForConcurrentRequests() throws Exception {
+		final Photo photo = new Photo(new PhotoId(5));
+		photo.setWidthAndHeight(700, 1000);
+		final Image scaledImage = createImage(280, 400);
+		final AtomicInteger noScalings = new AtomicInteger();
+		final CountDownLatch isScaling = new CountDownLatch(1);
+		final CountDownLatch mayFinish = new CountDownLatch(1);
+		final PhotoManager photoManager = new PhotoManager() {
+			@Override
+			protected Image doCreateScaledImage(Photo photo, PhotoSize size) throws Exception {
+				noScalings.incrementAndGet();
+				isScaling.countDown();
+				mayFinish.await();
+				return scaledImage;
+			}
+		};
+
+		final AtomicReference<Image> firstResult = new AtomicReference<Image>();
+		final AtomicReference<Image> secondResult = new AtomicReference<Image>();
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				firstResult.set(photoManager.getScaledImage(photo, PhotoSize.SMALL));
+			}
+		});
+		Thread second = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				secondResult.set(photoManager.getScaledImage(photo, PhotoSize.SMALL));
+			}
+		});
+
+		first.start();
+		isScaling.await();
+		second.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (second.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		mayFinish.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(1, noScalings.get());
+		assertSame(scaledImage, firstResult.get());
+		assertSame(scaledImage, secondResult.get());
+		assertTrue(photoManager.pendingScalings.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	protected static void assertFits(Image image, PhotoSize size) {
+		assertTrue(size.asString(), image.getWidth() <= size.getMaxPhotoWidth());
+		assertTrue(size.asString(), image.getHeight() <= size.getMaxPhotoHeight());
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static Image createImage(int width, int height) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+		return ImagesServiceFactory.makeImage(out.toByteArray());
+	}
+
+}
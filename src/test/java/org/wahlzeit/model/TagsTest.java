@@ -68,6 +68,10 @@ public class TagsTest extends TestCase {
 		assertEquals(Tags.asTag("flo wer"), "flower");
 		assertEquals(Tags.asTag(" 35j lNM#&In>B << f2"), "35jlnminbf2");
 		assertEquals(Tags.asTag(",,,,,,"), "");
+		assertEquals(Tags.asTag("flowerS"), "flowers");
+
+		String tag = "flower2";
+		assertSame(Tags.asTag(tag), tag);
 	}
 
 	/**
@@ -78,6 +82,8 @@ public class TagsTest extends TestCase {
 		assertSame(tags1.getSize(), 2);
 		assertEquals(tags1.asString(), "tag1, tag2");
 		assertEquals(tags1.asString(true, '+'), "tag1 + tag2");
+		assertEquals(new Tags("tag1").asString(), "tag1");
+		assertEquals(Tags.EMPTY_TAGS.asString(), "");
 	}
 
 	/**
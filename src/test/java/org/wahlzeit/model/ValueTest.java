@@ -22,6 +22,7 @@ package org.wahlzeit.model;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -127,4 +128,32 @@ public class ValueTest {
 		assert (test == PhotoId.getIdFromString(testString));
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotoIdEncoding() throws Exception {
+		int[] ids = { 0, 1, 35, 36, 1296, 123456, Integer.MAX_VALUE };
+		char[] buffer = new char[PhotoId.MAX_STRING_LENGTH + 2];
+		for (int id : ids) {
+			String string = PhotoId.getFromInt(id);
+			assertEquals(id, PhotoId.getFromString(string));
+
+			int start = PhotoId.encode(id, buffer, buffer.length - 1);
+			assertEquals(string, new String(buffer, start, buffer.length - 1 - start));
+
+			StringBuilder appended = new StringBuilder();
+			PhotoId.appendFromInt(id, appended);
+			assertEquals(string, appended.toString());
+
+			String uri = "/" + string + ".html";
+			assertEquals(id, PhotoId.getFromChars(uri, 1, uri.length() - 5));
+		}
+
+		assertEquals(0, PhotoId.getFromString("index"));
+		assertEquals(0, PhotoId.getFromString("xA1"));
+		assertEquals(0, PhotoId.getFromString("x"));
+		assertEquals(0, PhotoId.getFromString("xzzzzzzz"));
+	}
+
 }
@@ -128,4 +128,23 @@ public abstract class AbstractAdapterTest {
 		exists = imageStorage.doesImageExist("wrong file name", 1);
 		assert !exists;
 	}
+
+	@Test
+	public void testReadImageIfPresent() {
+		Serializable image = null;
+		try {
+			image = imageStorage.readImageIfPresent("later", 1);
+			assert image == null;
+			assert !imageStorage.doesImageExist("later", 1);
+
+			// writing must not leave the image cached as absent
+			imageStorage.writeImage(smallTestImage, "later", 1);
+			assert imageStorage.doesImageExist("later", 1);
+			image = imageStorage.readImageIfPresent("later", 1);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assert image instanceof Image;
+	}
 }
@@ -2,6 +2,7 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
@@ -21,9 +22,13 @@ import static org.junit.Assert.fail;
  */
 public class DatastoreAdapterTest extends AbstractAdapterTest {
 
+	/**
+	 * Queries never see unapplied writes, so existence checks must not rely on them
+	 */
 	@ClassRule
 	public static TestRule chain = RuleChain.
-			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			outerRule(new LocalDatastoreServiceTestConfigProvider(
+					new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(100))).
 			around(new RegisteredOfyEnvironmentProvider());
 
 	private Image tooLargeTestImage;
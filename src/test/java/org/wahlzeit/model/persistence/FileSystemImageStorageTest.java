@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link FileSystemImageStorage}
+ */
+public class FileSystemImageStorageTest extends AbstractAdapterTest {
+
+	@Rule
+	public TemporaryFolder rootDir = new TemporaryFolder();
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			imageStorage = new FileSystemImageStorage(rootDir.newFolder("photos").toPath());
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+	}
+
+	@Test
+	public void testOpenImage() throws IOException {
+		assertNull(imageStorage.openImage("streamed", 1));
+
+		imageStorage.writeImage(smallTestImage, "streamed", 1);
+		StoredImage image = imageStorage.openImage("streamed", 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			assertEquals(smallTestImage.getImageData().length, image.getLength());
+			image.transferTo(out);
+		} finally {
+			image.close();
+		}
+
+		assertArrayEquals(smallTestImage.getImageData(), out.toByteArray());
+	}
+
+	@Test
+	public void testOpenImageRange() throws IOException {
+		byte[] data = new byte[StoredImage.CHUNK_SIZE * 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "ranged", 1);
+
+		StoredImage image = imageStorage.openImage("ranged", 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			image.transferTo(100, StoredImage.CHUNK_SIZE * 2 + 1, out);
+		} finally {
+			image.close();
+		}
+
+		assertArrayEquals(Arrays.copyOfRange(data, 100, 100 + StoredImage.CHUNK_SIZE * 2 + 1), out.toByteArray());
+	}
+
+	@Test
+	public void testShardedLayout() throws IOException {
+		imageStorage.writeImage(smallTestImage, "x1abz", 2);
+
+		FileSystemImageStorage storage = (FileSystemImageStorage) imageStorage;
+		assertTrue(storage.getImageFile("x1abz", 2).toFile().isFile());
+		assertEquals(storage.getRootDir(), storage.getImageFile("x1abz", 2).getParent().getParent().getParent());
+	}
+
+	@Test
+	public void testPhotoIdsStayInRootDir() throws IOException {
+		FileSystemImageStorage storage = (FileSystemImageStorage) imageStorage;
+		assertEquals(storage.getRootDir(), storage.getImageFile("../../../x1abz", 1).getParent().getParent().getParent());
+	}
+
+	@Test
+	public void testConcurrentWritesOfSameImage() throws Exception {
+		final byte[][] versions = {new byte[64 * 1024], new byte[32 * 1024]};
+		Arrays.fill(versions[0], (byte) 1);
+		Arrays.fill(versions[1], (byte) 2);
+
+		Thread[] writers = new Thread[4];
+		final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+		for (int i = 0; i < writers.length; i++) {
+			final byte[] data = versions[i % versions.length];
+			writers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "contested", 1);
+						}
+					} catch (Exception ex) {
+						failures.add(ex);
+					}
+				}
+			});
+			writers[i].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		Path file = ((FileSystemImageStorage) imageStorage).getImageFile("contested", 1);
+		byte[] written = Files.readAllBytes(file);
+		assertTrue(Arrays.equals(versions[0], written) || Arrays.equals(versions[1], written));
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(file.getParent())) {
+			for (Path sibling : files) {
+				assertEquals(file, sibling);
+			}
+		}
+	}
+}
@@ -12,9 +12,17 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -173,4 +181,57 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testDisabledLevel() {
+		Logger logger = Logger.getLogger(LogBuilderTest.class.getName() + ".disabled");
+		logger.setLevel(Level.INFO);
+		List<LogRecord> records = addRecordingHandler(logger);
+
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG);
+		assertSame(LogBuilder.DISABLED, logBuilder);
+		assertFalse(logBuilder.isEnabled());
+		logBuilder.addAction("nothing").addParameter("size", 1).publish();
+		assertEquals("", LogBuilder.DISABLED.toString());
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void testPublish() {
+		Logger logger = Logger.getLogger(LogBuilderTest.class.getName() + ".enabled");
+		logger.setLevel(Level.CONFIG);
+		List<LogRecord> records = addRecordingHandler(logger);
+
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addAction("read").addParameter("size", 2).publish();
+		assertEquals(1, records.size());
+		LogRecord record = records.get(0);
+		assertEquals(Level.CONFIG, record.getLevel());
+		assertEquals(logger.getName(), record.getLoggerName());
+		assertEquals(getExpectedSystemMessage() + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + "read" +
+				INFO_SEPARATOR + "size" + NAME_VALUE_SEPARATOR + "2", record.getMessage());
+		assertEquals(LogBuilderTest.class.getName(), record.getSourceClassName());
+		assertEquals("testPublish", record.getSourceMethodName());
+	}
+
+	protected List<LogRecord> addRecordingHandler(Logger logger) {
+		final List<LogRecord> result = new ArrayList<LogRecord>();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				// source is inferred while publishing, like formatters do
+				record.getSourceClassName();
+				result.add(record);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		return result;
+	}
 }
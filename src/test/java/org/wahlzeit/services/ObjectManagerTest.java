@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ObjectManager class.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadObjectsInPages() {
+		final ObjectManager objectManager = new ObjectManager() {
+		};
+		final List<Integer> pageSizes = new ArrayList<Integer>();
+		final Set<String> texts = new HashSet<String>();
+
+		int noObjects = ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				List<Tag> tags = new ArrayList<Tag>();
+				for (int i = 0; i < 7; i++) {
+					tags.add(new Tag("tg:" + i, "x" + i));
+				}
+				objectManager.writeObjects(tags);
+
+				return objectManager.readObjects(Tag.class, 3, new Consumer<List<Tag>>() {
+					@Override
+					public void accept(List<Tag> page) {
+						pageSizes.add(page.size());
+						for (Tag tag : page) {
+							texts.add(tag.getText());
+						}
+					}
+				});
+			}
+		});
+
+		assertEquals(7, noObjects);
+		assertEquals(7, texts.size());
+		assertEquals(3, pageSizes.size());
+		assertEquals(Integer.valueOf(1), pageSizes.get(2));
+	}
+
+	/**
+	 * A vote arriving once the praise has been folded into the saved entity has to leave the photo dirty.
+	 */
+	@Test
+	public void testWriteObjectKeepsChangesMadeWhileSaving() {
+		final Photo photo = new Photo(PhotoId.getNextId());
+		photo.addToPraise(8);
+		final ObjectManager objectManager = new ObjectManager() {
+			@Override
+			protected void updateDependents(Persistent object, int dirtyFieldGroups) {
+				assertEquals(DataObject.ALL_FIELD_GROUPS, dirtyFieldGroups);
+				photo.addToPraise(4);
+			}
+		};
+
+		ObjectifyService.run(new VoidWork() {
+			@Override
+			public void vrun() {
+				objectManager.writeObject(photo);
+			}
+		});
+
+		assertTrue(photo.isDirty(Photo.PRAISE_FIELDS));
+		assertEquals(3, photo.getNoVotes());
+		assertEquals(Photo.PRAISE_FIELDS, photo.takeDirtyFieldGroups());
+		assertFalse(photo.isDirty());
+	}
+
+}
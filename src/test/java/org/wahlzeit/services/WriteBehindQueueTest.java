@@ -0,0 +1,106 @@
+package org.wahlzeit.services;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 * Records the batches instead of writing them; fails while failing is set.
+	 */
+	private static class RecordingObjectManager extends ObjectManager {
+
+		private final List<Collection<? extends Persistent>> batches = new ArrayList<Collection<? extends Persistent>>();
+		private boolean failing = false;
+
+		@Override
+		protected void writeObjects(Collection<? extends Persistent> objects) {
+			if (failing) {
+				throw new IllegalStateException("Datastore not available");
+			}
+			batches.add(new ArrayList<Persistent>(objects));
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static class TestObject extends DataObject {
+	}
+
+	@Test
+	public void testCoalescesRepeatedUpdates() {
+		WriteBehindQueue queue = new WriteBehindQueue(100, 60 * 1000);
+		RecordingObjectManager manager = new RecordingObjectManager();
+		TestObject object = new TestObject();
+
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, object);
+		queue.enqueue(manager, new TestObject());
+		assertEquals(2, queue.getQueueDepth());
+
+		queue.flush();
+
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(1, manager.batches.size());
+		assertEquals(2, manager.batches.get(0).size());
+		assertEquals(1, queue.getFlushCount());
+		assertEquals(2, queue.getWrittenObjectCount());
+	}
+
+	@Test
+	public void testFailedBatchIsQueuedAgain() {
+		WriteBehindQueue queue = new WriteBehindQueue(100, 60 * 1000);
+		RecordingObjectManager manager = new RecordingObjectManager();
+		manager.failing = true;
+
+		queue.enqueue(manager, new TestObject());
+		queue.flush();
+		assertEquals(1, queue.getFailedFlushCount());
+		assertEquals(1, queue.getQueueDepth());
+
+		manager.failing = false;
+		queue.flush();
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(1, manager.batches.size());
+	}
+
+	@Test
+	public void testFlushesWhenBatchIsFull() throws InterruptedException {
+		WriteBehindQueue queue = new WriteBehindQueue(2, 60 * 1000);
+		queue.start();
+		try {
+			RecordingObjectManager manager = new RecordingObjectManager();
+			queue.enqueue(manager, new TestObject());
+			queue.enqueue(manager, new TestObject());
+
+			for (int i = 0; i < 100 && queue.getFlushCount() == 0; i++) {
+				Thread.sleep(20);
+			}
+			assertTrue(queue.isRunning());
+			assertEquals(1, queue.getFlushCount());
+			assertEquals(0, queue.getQueueDepth());
+		} finally {
+			queue.stop();
+		}
+	}
+
+}
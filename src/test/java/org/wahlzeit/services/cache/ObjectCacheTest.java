@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ObjectCache class and its eviction policies.
+ */
+public class ObjectCacheTest {
+
+	/**
+	 *
+	 */
+	private static final Weigher<String> LENGTH_WEIGHER = new Weigher<String>() {
+		@Override
+		public long weigh(String value) {
+			return value.length();
+		}
+	};
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(2, 100, new LruEvictionPolicy<Integer>(), LENGTH_WEIGHER);
+		cache.put(1, "a");
+		cache.put(2, "b");
+		cache.get(1);
+		cache.put(3, "c");
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(1));
+		assertNull(cache.get(2));
+		assertNotNull(cache.get(3));
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWeightBound() {
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(10, 5, new LruEvictionPolicy<Integer>(), LENGTH_WEIGHER);
+		cache.put(1, "aaa");
+		cache.put(2, "bbb");
+
+		assertEquals(1, cache.size());
+		assertEquals(3, cache.getWeight());
+		assertTrue(cache.containsKey(2));
+
+		cache.put(2, "b");
+		assertEquals(1, cache.getWeight());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHitAndMissCounters() {
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(10, 100, new LruEvictionPolicy<Integer>(), LENGTH_WEIGHER);
+		cache.put(1, "a");
+		cache.get(1);
+		cache.get(1);
+		cache.get(2);
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictionListener() {
+		final List<Integer> evicted = new ArrayList<Integer>();
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(1, 100, new LruEvictionPolicy<Integer>(), LENGTH_WEIGHER);
+		cache.setEvictionListener(new EvictionListener<Integer, String>() {
+			@Override
+			public void onEviction(Integer key, String value) {
+				evicted.add(key);
+			}
+		});
+
+		cache.put(1, "a");
+		cache.put(2, "b");
+
+		assertEquals(1, evicted.size());
+		assertEquals(Integer.valueOf(1), evicted.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTinyLfuKeepsFrequentEntries() {
+		int size = 100;
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(size, 1000, new TinyLfuEvictionPolicy<Integer>(size), LENGTH_WEIGHER);
+		for (int i = 0; i < size; i++) {
+			cache.put(i, "x");
+			for (int j = 0; j < 3; j++) {
+				cache.get(i);
+			}
+		}
+
+		// a scan of one-time requests must not flush the popular entries
+		for (int i = size; i < 10 * size; i++) {
+			cache.put(i, "y");
+		}
+
+		int retained = 0;
+		for (int i = 0; i < size; i++) {
+			if (cache.containsKey(i)) {
+				retained++;
+			}
+		}
+		assertEquals(size, cache.size());
+		assertTrue(retained >= size * 9 / 10);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTinyLfuReplace() {
+		int size = 10;
+		final List<Integer> evicted = new ArrayList<Integer>();
+		TinyLfuEvictionPolicy<Integer> policy = new TinyLfuEvictionPolicy<Integer>(size);
+		ObjectCache<Integer, String> cache = new ObjectCache<Integer, String>(size, 1000, policy, LENGTH_WEIGHER);
+		cache.setEvictionListener(new EvictionListener<Integer, String>() {
+			@Override
+			public void onEviction(Integer key, String value) {
+				evicted.add(key);
+			}
+		});
+
+		for (int i = 0; i < size; i++) {
+			cache.put(i, "x");
+		}
+		for (int j = 0; j < 5; j++) {
+			for (int i = 0; i < size; i++) {
+				cache.put(i, "xx");
+			}
+		}
+		assertEquals(size, policy.window.size() + policy.main.size());
+
+		for (int i = size; i < 10 * size; i++) {
+			cache.put(i, "y");
+		}
+
+		// replaced entries must neither stay behind in the policy nor get the cache cleared
+		assertEquals(size, cache.size());
+		assertEquals(size, policy.window.size() + policy.main.size());
+		assertEquals(9 * size, evicted.size());
+		assertEquals(9 * size, cache.getEvictionCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutIfAbsent() {
+		ObjectCache<Integer, String> cache =
+				new ObjectCache<Integer, String>(2, 100, new LruEvictionPolicy<Integer>(), LENGTH_WEIGHER);
+		assertNull(cache.putIfAbsent(1, "a"));
+		cache.put(2, "b");
+
+		// the existing value stays and counts as used
+		assertEquals("a", cache.putIfAbsent(1, "other"));
+		assertEquals("a", cache.get(1));
+		assertEquals(2, cache.getWeight());
+
+		assertNull(cache.putIfAbsent(3, "c"));
+		assertFalse(cache.containsKey(2));
+		assertTrue(cache.containsKey(1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFrequencySketch() {
+		FrequencySketch sketch = new FrequencySketch(64);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment("popular");
+		}
+		sketch.increment("rare");
+
+		assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("popular"));
+		assertTrue(sketch.frequency("rare") >= 1);
+		assertTrue(sketch.frequency("rare") < sketch.frequency("popular"));
+	}
+
+}
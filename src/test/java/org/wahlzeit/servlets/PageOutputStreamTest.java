@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.BufferPool;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the PageOutputStream and BufferPool classes.
+ */
+public class PageOutputStreamTest {
+
+	private ByteArrayOutputStream sent;
+	private HttpServletResponse response;
+	private BufferPool bufferPool;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		sent = new ByteArrayOutputStream();
+		response = mock(HttpServletResponse.class);
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				sent.write(b);
+			}
+		});
+		bufferPool = new BufferPool(16, 1024, 4);
+	}
+
+	/**
+	 *
+	 */
+	protected static byte[] createPage(int size) {
+		byte[] result = new byte[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = (byte) ('a' + i % 26);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallPageHasContentLength() throws IOException {
+		PageOutputStream out = new PageOutputStream(response, false, bufferPool);
+		out.write(createPage(10));
+		assertFalse(out.isCommitted());
+		out.close();
+
+		verify(response).setContentLength(10);
+		assertArrayEquals(createPage(10), sent.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEarlyFlushWaitsWhilePageFits() throws IOException {
+		byte[] page = createPage(10);
+		PageOutputStream out = new PageOutputStream(response, false, bufferPool);
+		out.write(page, 0, 5);
+		out.flush();
+		assertFalse(out.isCommitted());
+		assertEquals(0, sent.size());
+
+		out.write(page, 5, 5);
+		out.close();
+
+		verify(response).setContentLength(10);
+		assertArrayEquals(page, sent.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFlushStreamsLargePage() throws IOException {
+		byte[] page = createPage(100);
+		PageOutputStream out = new PageOutputStream(response, false, bufferPool);
+		for (int i = 0; i < 20; i++) {
+			out.write(page[i]);
+		}
+		assertTrue(out.isCommitted());
+		out.flush();
+		assertEquals(20, sent.size());
+
+		for (int i = 20; i < page.length; i++) {
+			out.write(page[i]);
+		}
+		out.close();
+
+		verify(response, never()).setContentLength(100);
+		assertArrayEquals(page, sent.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGzip() throws IOException {
+		byte[] page = createPage(3000);
+		PageOutputStream out = new PageOutputStream(response, true, bufferPool);
+		out.write(page, 0, 1000);
+		out.flush();
+		out.write(page, 1000, 2000);
+		out.close();
+
+		verify(response).setHeader("Content-Encoding", "gzip");
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(sent.toByteArray()));
+		ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+		byte[] chunk = new byte[512];
+		for (int n = in.read(chunk); n != -1; n = in.read(chunk)) {
+			unzipped.write(chunk, 0, n);
+		}
+		assertArrayEquals(page, unzipped.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBufferPoolTunesSize() {
+		assertEquals(16, bufferPool.getBufferSize());
+		for (int i = 0; i < 100; i++) {
+			bufferPool.release(bufferPool.acquire(), 300);
+		}
+
+		assertEquals(512, bufferPool.getBufferSize());
+		assertEquals(1, bufferPool.getNoPooledBuffers());
+		byte[] buffer = bufferPool.acquire();
+		assertEquals(512, buffer.length);
+		assertEquals(0, bufferPool.getNoPooledBuffers());
+
+		for (int i = 0; i < 100; i++) {
+			bufferPool.release(bufferPool.acquire(), 100000);
+		}
+		assertEquals(1024, bufferPool.getBufferSize());
+	}
+
+}
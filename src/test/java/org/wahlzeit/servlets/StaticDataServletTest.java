@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the StaticDataServlet class.
+ */
+public class StaticDataServletTest {
+
+	private final StaticDataServlet servlet = new StaticDataServlet();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetRequestedRange() {
+		assertNull(servlet.getRequestedRange(null, 1000));
+		assertNull(servlet.getRequestedRange("items=0-99", 1000));
+
+		assertArrayEquals(new long[] {0, 99}, servlet.getRequestedRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] {500, 999}, servlet.getRequestedRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] {990, 999}, servlet.getRequestedRange("bytes=990-2000", 1000));
+		assertArrayEquals(new long[] {0, 0}, servlet.getRequestedRange("bytes= 0 - 0 ", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetRequestedSuffixRange() {
+		assertArrayEquals(new long[] {800, 999}, servlet.getRequestedRange("bytes=-200", 1000));
+		assertArrayEquals(new long[] {0, 999}, servlet.getRequestedRange("bytes=-2000", 1000));
+		assertSame(StaticDataServlet.UNSATISFIABLE_RANGE, servlet.getRequestedRange("bytes=-0", 1000));
+		assertSame(StaticDataServlet.UNSATISFIABLE_RANGE, servlet.getRequestedRange("bytes=-200", 0));
+	}
+
+	/**
+	 * Several ranges and malformed ones are answered with the whole image.
+	 */
+	@Test
+	public void testGetRequestedRangeFallsBackToWholeImage() {
+		assertNull(servlet.getRequestedRange("bytes=0-99,200-299", 1000));
+		assertNull(servlet.getRequestedRange("bytes=50-10", 1000));
+		assertNull(servlet.getRequestedRange("bytes=a-b", 1000));
+		assertNull(servlet.getRequestedRange("bytes=100", 1000));
+		assertNull(servlet.getRequestedRange("bytes=--5", 1000));
+		assertNull(servlet.getRequestedRange("bytes=+1-5", 1000));
+		assertNull(servlet.getRequestedRange("bytes=-", 1000));
+		assertNull(servlet.getRequestedRange("bytes=99999999999999999999-", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetUnsatisfiableRange() {
+		assertSame(StaticDataServlet.UNSATISFIABLE_RANGE, servlet.getRequestedRange("bytes=1000-", 1000));
+		assertSame(StaticDataServlet.UNSATISFIABLE_RANGE, servlet.getRequestedRange("bytes=1500-2000", 1000));
+		assertSame(StaticDataServlet.UNSATISFIABLE_RANGE, servlet.getRequestedRange("bytes=0-", 0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsMatchingETag() {
+		String eTag = servlet.getETag("x1a", 3);
+		assertEquals("\"x1a-3\"", eTag);
+
+		assertTrue(servlet.isMatchingETag(eTag, eTag));
+		assertTrue(servlet.isMatchingETag("W/" + eTag, eTag));
+		assertTrue(servlet.isMatchingETag("\"x1a-2\", " + eTag, eTag));
+		assertTrue(servlet.isMatchingETag(" W/\"x1a-2\" ,W/" + eTag + " ", eTag));
+		assertTrue(servlet.isMatchingETag("*", eTag));
+
+		assertFalse(servlet.isMatchingETag("\"x1a-2\"", eTag));
+		assertFalse(servlet.isMatchingETag("x1a-3", eTag));
+		assertFalse(servlet.isMatchingETag("", eTag));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetImageContentType() {
+		assertEquals("image/jpeg", StaticDataServlet.getImageContentType(bytes(0xFF, 0xD8, 0xFF, 0xE0)));
+		assertEquals("image/png", StaticDataServlet.getImageContentType(bytes(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A,
+				'\n', 0, 0, 0, 13)));
+		assertEquals("image/gif", StaticDataServlet.getImageContentType(bytes('G', 'I', 'F', '8', '9', 'a')));
+		assertEquals("image/webp", StaticDataServlet.getImageContentType(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W',
+				'E', 'B', 'P')));
+
+		assertNull(StaticDataServlet.getImageContentType(bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'A', 'V', 'E')));
+		assertNull(StaticDataServlet.getImageContentType(bytes(0xFF, 0xD8)));
+		assertNull(StaticDataServlet.getImageContentType(new byte[0]));
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte) values[i];
+		}
+		return result;
+	}
+
+}
@@ -12,8 +12,21 @@ import org.junit.rules.ExternalResource;
  */
 public class LocalDatastoreServiceTestConfigProvider extends ExternalResource {
 
-	private final LocalServiceTestHelper helper =
-			new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+	private final LocalServiceTestHelper helper;
+
+	/**
+	 * Uses the default config with strongly consistent queries.
+	 */
+	public LocalDatastoreServiceTestConfigProvider() {
+		this(new LocalDatastoreServiceTestConfig());
+	}
+
+	/**
+	 * Use a custom config, e.g. one that simulates eventual consistency of queries.
+	 */
+	public LocalDatastoreServiceTestConfigProvider(LocalDatastoreServiceTestConfig config) {
+		helper = new LocalServiceTestHelper(config);
+	}
 
 	@Override
 	protected void before() throws Throwable {
@@ -0,0 +1,24 @@
+package org.wahlzeit.testEnvironmentProvider;
+
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.rules.ExternalResource;
+
+/**
+ * Provider for the GAE images service environment. Necessary for each Unit test that wants to scale images.
+ */
+public class LocalImagesServiceTestConfigProvider extends ExternalResource {
+
+	private final LocalServiceTestHelper helper =
+			new LocalServiceTestHelper(new LocalImagesServiceTestConfig());
+
+	@Override
+	protected void before() throws Throwable {
+		helper.setUp();
+	}
+
+	@Override
+	protected void after() {
+		helper.tearDown();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the HtmlUtil class.
+ */
+public class HtmlUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskForWeb() {
+		String plain = "A sunset over the lake";
+		assertSame(plain, HtmlUtil.maskForWeb(plain));
+		assertEquals("", HtmlUtil.maskForWeb(""));
+		assertEquals("&lt;b&gt;Tom &amp; &quot;Jerry&quot;&lt;/b&gt;", HtmlUtil.maskForWeb("<b>Tom & \"Jerry\"</b>"));
+		assertEquals("&amp;&amp;", HtmlUtil.maskForWeb("&&"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskForWebOnWriter() throws Exception {
+		StringWriter writer = new StringWriter();
+		HtmlUtil.maskForWeb("x < y", writer);
+		HtmlUtil.maskForWeb(new StringBuilder("&z"), writer);
+		assertEquals("x &lt; y&amp;z", writer.toString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskForWebOnStream() throws Exception {
+		String caption = "Café <Zürich> & 📷 \uD800!";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HtmlUtil.maskForWeb(caption, out);
+		assertArrayEquals(HtmlUtil.maskForWeb(caption).getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+		StringBuilder longCaption = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			longCaption.append("ä\"€");
+		}
+		out.reset();
+		HtmlUtil.writeUtf8(longCaption.toString(), out);
+		assertArrayEquals(longCaption.toString().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+
+		out.reset();
+		HtmlUtil.writeUtf8(caption, out);
+		assertArrayEquals(caption.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTagsAndLinks() {
+		assertEquals("<a href=\"/a\" rel=\"nofollow\">b</a>", HtmlUtil.asHref("/a", "b"));
+		assertEquals("<img src=\"x.png\" width=\"10\" height=\"20\" />", HtmlUtil.asImg("x.png", 10, 20));
+		assertEquals("<p><b>x</b></p>", HtmlUtil.asP(HtmlUtil.asBold("x")));
+		assertEquals("1.005", StringUtil.asStringInSeconds(1005));
+		assertEquals("0.120", StringUtil.asStringInSeconds(120));
+	}
+
+}
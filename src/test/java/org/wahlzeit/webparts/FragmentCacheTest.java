@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the FragmentCache class.
+ */
+public class FragmentCacheTest {
+
+	private FragmentCache cache;
+	private AtomicInteger noMadeParts;
+	private Supplier<WebPart> maker;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		cache = new FragmentCache(10, 1000);
+		noMadeParts = new AtomicInteger();
+		final WebPartTemplate template = new WebPartTemplate("infos/CaptionInfo");
+		template.initialize("<p class=\"caption\">{$caption}</p>");
+		maker = new Supplier<WebPart>() {
+			@Override
+			public WebPart get() {
+				WebPart result = new WebPart(template);
+				result.addString("caption", "Photo " + noMadeParts.incrementAndGet());
+				return result;
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	protected static String asString(Writable writable) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHitDoesNotMakePart() throws Exception {
+		Writable first = cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker);
+		Writable second = cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker);
+
+		assertTrue(first instanceof RenderedFragment);
+		assertSame(first, second);
+		assertEquals(1, noMadeParts.get());
+		assertEquals("<p class=\"caption\">Photo 1</p>", asString(second));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeyParts() throws Exception {
+		cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker);
+		assertEquals("<p class=\"caption\">Photo 2</p>", asString(cache.getFragment("de", "infos/CaptionInfo", 1, 7, maker)));
+		assertEquals("<p class=\"caption\">Photo 3</p>", asString(cache.getFragment("en", "infos/CaptionInfo", 2, 7, maker)));
+		assertEquals("<p class=\"caption\">Photo 4</p>", asString(cache.getFragment("en", "infos/CaptionInfo", 1, 8, maker)));
+		assertEquals(4, noMadeParts.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInvalidateAll() {
+		cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker);
+		cache.invalidateAll();
+		cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker);
+
+		assertEquals(2, noMadeParts.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentInPage() throws Exception {
+		WebPartTemplate pageTemplate = new WebPartTemplate("pages/Page");
+		pageTemplate.initialize("<div>{$caption}</div>");
+		WebPart page = new WebPart(pageTemplate);
+		page.addWritable("caption", cache.getFragment("en", "infos/CaptionInfo", 1, 7, maker));
+
+		assertEquals("<div><p class=\"caption\">Photo 1</p></div>", asString(page));
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the WebPartTemplateService class.
+ */
+public class WebPartTemplateServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WebPartTemplateService service;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/pages/Page", "<p>{$text}</p>");
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "de/pages/Page", "<p>Seite {$text}</p>");
+		writeTemplate(ConfigDir.CUSTOM_DIR_NAME, "en/pages/Page", "<p>custom {$text}</p>");
+		writeTemplate(ConfigDir.CUSTOM_DIR_NAME, "en/infos/Info", "<p>info</p>");
+
+		service = new WebPartTemplateService();
+		service.setTemplatesDir(new ConfigDir(folder.getRoot().getPath(), "templates"));
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		service.stopWatching();
+	}
+
+	/**
+	 *
+	 */
+	protected File writeTemplate(String dirName, String shortName, String source) throws IOException {
+		File file = new File(folder.getRoot(), "templates/" + dirName + "/" + shortName + ".html");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadTemplates() throws IOException {
+		service.loadTemplates();
+
+		assertEquals("<p></p>", service.getTemplate("en", "pages/Page").asString());
+		assertEquals("<p>Seite </p>", service.getTemplate("de", "pages/Page").asString());
+		assertEquals("<p>info</p>", service.getTemplate("en", "infos/Info").asString());
+		assertSame(service.getTemplate("en", "pages/Page"), service.getTemplate("en", "pages/Page"));
+		assertTrue(service.templates.containsKey("en/infos/Info"));
+
+		// preloaded: templates added later are not looked up
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/infos/Later", "<p>later</p>");
+		assertNull(service.getTemplate("en", "infos/Later"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateNameIgnoresFileSeparator() {
+		assertEquals("en/pages/Page.html", WebPartTemplateService.asTemplateName(Paths.get("en", "pages", "Page.html")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLazyLoading() {
+		assertEquals("<p>info</p>", service.getTemplate("en", "infos/Info").asString());
+		assertSame(service.getTemplate("en", "infos/Info"), service.getTemplate("en", "infos/Info"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadOnChange() throws Exception {
+		service.loadTemplates();
+		WebPartTemplate before = service.getTemplate("en", "pages/Page");
+		service.startWatching(Executors.defaultThreadFactory());
+
+		writeTemplate(ConfigDir.DEFAULT_DIR_NAME, "en/pages/Page", "<p>changed {$text}</p>");
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!"<p>changed </p>".equals(service.getTemplate("en", "pages/Page").asString()) &&
+				System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		assertNotSame(before, service.getTemplate("en", "pages/Page"));
+		assertEquals("<p>changed </p>", service.getTemplate("en", "pages/Page").asString());
+		assertEquals("<p>Seite </p>", service.getTemplate("de", "pages/Page").asString());
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the WebPart class and its compiled templates.
+ */
+public class WebPartTest {
+
+	/**
+	 *
+	 */
+	protected static WebPartTemplate createTemplate(String name, String source) {
+		WebPartTemplate result = new WebPartTemplate(name);
+		result.initialize(source);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompiledKeys() {
+		CompiledTemplate compiled = createTemplate("test", "<p>{$a} and {$b}, then {$a}</p>").getCompiled();
+
+		assertEquals(2, compiled.getNoKeys());
+		assertEquals("a", compiled.getKey(compiled.getKeyIndex("a")));
+		assertEquals(-1, compiled.getKeyIndex("c"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStreamMatchesWriter() throws Exception {
+		WebPart page = new WebPart(createTemplate("page", "<html><h1>{$title}</h1> – <div>{$body}</div><p>{$missing}</p></html>"));
+		WebPart body = new WebPart(createTemplate("body", "<div>{$text} and again {$text}</div>"));
+		body.addString("text", "Grüße");
+		page.addString("title", "Wahlzeit");
+		page.addString("unknown", "ignored");
+		WritableList list = new WritableList();
+		list.append(body).append(body);
+		page.addWritable("body", list);
+
+		StringWriter writer = new StringWriter();
+		page.writeOn(writer);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		page.writeOn(bytes);
+
+		String expected = "<html><h1>Wahlzeit</h1> – <div><div>Grüße and again Grüße</div><div>Grüße and again Grüße</div></div><p></p></html>";
+		assertEquals(expected, writer.toString());
+		assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFlushAfterHead() throws Exception {
+		WebPart page = new WebPart(createTemplate("page", "<html><head><title>{$title}</title></head><body>{$body}</body></html>"));
+		page.addString("title", "Wahlzeit");
+		page.addString("body", "text");
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final StringBuilder flushedAt = new StringBuilder();
+		page.writeOn(new FilterOutputStream(bytes) {
+			@Override
+			public void write(byte[] b, int off, int len) {
+				bytes.write(b, off, len);
+			}
+
+			@Override
+			public void flush() {
+				flushedAt.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			}
+		});
+
+		assertEquals("<html><head><title>Wahlzeit</title></head>", flushedAt.toString());
+		assertEquals("<html><head><title>Wahlzeit</title></head><body>text</body></html>",
+				new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+}